@@ -4,48 +4,65 @@ import site.ycsb.ByteIterator;
 import site.ycsb.DB;
 import site.ycsb.Status;
 import site.ycsb.StringByteIterator;
+import site.ycsb.Utils;
 import site.ycsb.Workload;
 import site.ycsb.WorkloadException;
-import site.ycsb.generator.CounterGenerator;
 import site.ycsb.generator.UniformLongGenerator;
 import site.ycsb.generator.ZipfianGenerator;
 import site.ycsb.generator.NumberGenerator;
-
+import site.ycsb.measurements.Measurements;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Properties;
+import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.Arrays;
 
 public class MultiTableWorkload extends Workload {
 
-	// Array of key sequences for each table.
-	private CounterGenerator[] keySequences;
-	// Array of generators for each table.
-	private NumberGenerator[] generators; // can be Zipfian or Uniform
-
-	// Define table names and initialize their properties.
-	private static final String[] TABLE_NAMES = { "users", "comments", "posts" };
-	// Probabilities of selecting each table.
-	private double[] TABLE_PROBABILITIES;
-	// Percentage of records to insert into each table.
-	private double[] TABLE_INSERT_PERCENTAGE;
-	// The number of records in each table.
-	private static final int[] TABLE_RECORDS = new int[TABLE_NAMES.length];
+	// Range of the ids of each table loaded by this client, as selected by
+	// insertstart and insertcount. The threads split it in initThread().
+	private long[] loadStartIds;
+	private long[] loadCounts;
+	// Number of records loaded into each table.
+	private LongAdder[] loadedRecords;
+	// Distribution of the keys accessed during "run" (zipfian, scrambledzipfian,
+	// latest or uniform).
+	private String requestDistribution;
+	// Zeta constant of each table, computed once and shared by the Zipfian
+	// generators of all the threads.
+	private double[] zetans;
+
+	// Tables of the schema, with their record counts, probabilities and parents.
+	private TableSchema[] tables;
+	// Sampler of the tables according to their probabilities.
+	private AliasTable tableSampler;
 
 	// Define field properties.
 	private int fieldCount = 10; // Number of fields in each record.
 	private long fieldLength = 100; // Length of each field.
-	// Generator for field lengths.
-	// It generates a length between 1 and fieldLength
-	private UniformLongGenerator fieldLengthGenerator;
+	// Names of the generated fields ("field0", "field1", ...), built once in init().
+	private String[] fieldNames;
 
 	// Define Max and Min characters for a single longer field
 	private long minContentChars = 500;
 	private long maxContentChars = 1000;
-	// It generates a length between minContentChars and maxContentChars
-	private UniformLongGenerator longContentFieldLengthGenerator;
+
+	// Size in bytes of the shared pool of random characters used for field values.
+	private int payloadPoolSize = 16 * 1024 * 1024;
+	// Read-only pool of random characters. Field values are slices of it.
+	private PayloadPool payloadPool;
 
 	// Flags to indicate whether to read/write all fields.
 	private boolean readAllFields = true;
@@ -56,24 +73,71 @@ public class MultiTableWorkload extends Workload {
 	private double updateProportion;
 	private double insertProportion;
 	private double deleteProportion;
-
-	// Index of the current table and the number of records already inserted.
-	private AtomicInteger currentTableIndex = new AtomicInteger(0);
-	private AtomicInteger currentRecordCount = new AtomicInteger(0);
+	private double viewPostProportion;
+
+	// The "view post" operation reads a record of viewPostTable (a post), its
+	// parent record (the author) and up to viewPostComments records of each table
+	// referencing it (the comments).
+	private int viewPostTableIndex = -1;
+	private int[] viewPostChildren;
+	private int viewPostComments = 10;
+
+	// Binding of each client thread, set by registerBinding(). YCSB calls DB.init()
+	// and then initThread() on the client thread, so initThread() finds the
+	// binding behind the DBWrapper without reaching into it.
+	private static final ThreadLocal<DB> BINDINGS = new ThreadLocal<>();
+	// Whether the binding of each client thread returns before the responses.
+	private static final ThreadLocal<Boolean> ASYNC_BINDINGS = new ThreadLocal<>();
 
 	// Prefixes for keys.
 	private String prefix;
 	private String prefix_run_insert; // Prefix for insert operations during "run" benchmark
+	// Prefixes encoded in UTF-8, as written at the start of the encoded keys.
+	private byte[] prefixBytes;
+	private byte[] runInsertPrefixBytes;
+
+	// Encoder of the numeric ids into keys (plain, fixed or hashed).
+	private KeyCodec keyCodec;
+
+	// Key last generated by each thread, as a String and as bytes. Bindings can get
+	// the bytes through encodedKey() instead of encoding the String again.
+	private static final ThreadLocal<EncodedKey> LAST_KEY = new ThreadLocal<>();
+
+	// Next free id for the "run" inserts of each table. Threads reserve ids in
+	// blocks of INSERT_ID_BLOCK_SIZE, so they only meet here once per block.
+	private AtomicLong[] insertIdBlocks;
+	private static final int INSERT_ID_BLOCK_SIZE = 1000;
+
+	/**
+	 * The operations of a transaction: the CRUD operations and the composite
+	 * "view post" one. Their ordinal indexes the arrays of proportions and counts.
+	 */
+	enum Operation {
+		READ, UPDATE, INSERT, DELETE, VIEW_POST;
+
+		private static final Operation[] VALUES = values();
+	}
 
-	// Counter generators for insert sequences.
-	private CounterGenerator[] insertSequences;
+	// Sampler of the operations according to their proportions, used once a
+	// thread has run all the operations assigned to it.
+	private AliasTable operationSampler;
 
-	// Counters for CRUD operations
+	// Counts for CRUD operations over all the threads
 	private int operationCount = 1000;
-	private HashMap<String, AtomicInteger> operationCounters;
+	private long[] operationTotals;
+
+	// Ids of the deleted keys of each table, one bit per loaded record.
+	private ConcurrentBitSet[] deletedKeys;
+	// Number of keys drawn from the request distribution before a deleted key is
+	// remapped to the next live one.
+	private static final int MAX_KEY_ATTEMPTS = 8;
 
-	// Added HashMap for keeping track of deleted keys.
-	private Set<String> deletedKeys = new HashSet<>();
+	// With the "latest" distribution: the ids of the last acknowledged "run"
+	// inserts of each table, and the zeta constant of the recency ranks, which
+	// cover the window of recent inserts followed by the loaded records.
+	private RecentInserts[] recentInserts;
+	private int latestWindow = 65536;
+	private double[] latestZetans;
 
 	/**
 	 * This method is called once to set up the workload's state. It initializes
@@ -90,63 +154,106 @@ public class MultiTableWorkload extends Workload {
 
 		// Parse properties from the given Properties object.
 
-		int totalRecordCount = Integer.parseInt(p.getProperty("recordcount", "1000"));
+		long totalRecordCount = Long.parseLong(p.getProperty("recordcount", "1000"));
 
 		prefix = p.getProperty("prefix", "user");
 		prefix_run_insert = p.getProperty("prefix_run_insert", "");
+		prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+		runInsertPrefixBytes = (prefix_run_insert + prefix).getBytes(StandardCharsets.UTF_8);
 
-		String requestDistribution = p.getProperty("requestdistribution", "zipfian");
+		requestDistribution = p.getProperty("requestdistribution", "zipfian");
 
 		System.out.println("requested distribution:" + requestDistribution);
 
-		String[] tableProbabilitiesStr = p.getProperty("tableprobabilities", "0.3,0.4,0.3").split(",");
-		TABLE_PROBABILITIES = new double[tableProbabilitiesStr.length];
-		for (int i = 0; i < tableProbabilitiesStr.length; i++) {
-			TABLE_PROBABILITIES[i] = Double.parseDouble(tableProbabilitiesStr[i]);
-		}
-
-		String[] tableInsertPercentagesStr = p.getProperty("tableinsertpercentage", "0.3,0.4,0.3").split(",");
-		TABLE_INSERT_PERCENTAGE = new double[tableInsertPercentagesStr.length];
-		for (int i = 0; i < tableInsertPercentagesStr.length; i++) {
-			TABLE_INSERT_PERCENTAGE[i] = Double.parseDouble(tableInsertPercentagesStr[i]);
+		tables = TableSchema.load(p, totalRecordCount);
+		double[] tableProbabilities = new double[tables.length];
+		for (int i = 0; i < tables.length; i++) {
+			tableProbabilities[i] = tables[i].probability;
+			System.out.println(tables[i]);
 		}
+		tableSampler = new AliasTable(tableProbabilities);
 
-		TABLE_RECORDS[0] = (int) (totalRecordCount * TABLE_INSERT_PERCENTAGE[0]); // users
-		TABLE_RECORDS[1] = (int) (totalRecordCount * TABLE_INSERT_PERCENTAGE[1]); // comments
-		TABLE_RECORDS[2] = totalRecordCount - TABLE_RECORDS[0] - TABLE_RECORDS[1]; // posts
+		// Initialize key sequences, zeta constants, and insert ids for each table.
+		// The generators themselves are created per thread in initThread().
 
-		// Initialize key sequences, generators, and insert sequences for each
-		// table.
+		// Zeta constants are approximated for large tables, unless zetaexact is set;
+		// exact values can be kept in zetacachefile and reused by later runs.
+		ZetaCache zetaCache = new ZetaCache(Boolean.parseBoolean(p.getProperty("zetaexact", "false")),
+				p.getProperty("zetacachefile"));
 
-		keySequences = new CounterGenerator[TABLE_NAMES.length];
-		generators = new NumberGenerator[TABLE_NAMES.length];
+		if ("latest".equals(requestDistribution)) {
+			latestWindow = Integer.parseInt(p.getProperty("latestwindow", Integer.toString(latestWindow)));
+			recentInserts = new RecentInserts[tables.length];
+			latestZetans = new double[tables.length];
+		}
 
-		// Initialize generators based on the property.
-		for (int i = 0; i < TABLE_NAMES.length; i++) {
-			keySequences[i] = new CounterGenerator(0);
-			if ("zipfian".equals(requestDistribution)) {
-				generators[i] = new ZipfianGenerator(TABLE_RECORDS[i] - 1);
-			} else if ("uniform".equals(requestDistribution)) {
-				generators[i] = new UniformLongGenerator(0, TABLE_RECORDS[i] - 1);
-			} else {
+		loadedRecords = new LongAdder[tables.length];
+		zetans = new double[tables.length];
+		insertIdBlocks = new AtomicLong[tables.length];
+		deletedKeys = new ConcurrentBitSet[tables.length];
+
+		for (int i = 0; i < tables.length; i++) {
+			loadedRecords[i] = new LongAdder();
+			deletedKeys[i] = new ConcurrentBitSet(tables[i].recordCount);
+			switch (requestDistribution) {
+			case "latest":
+				recentInserts[i] = new RecentInserts(latestWindow);
+				latestZetans[i] = zetaCache.zeta(recentInserts[i].capacity() + tables[i].recordCount,
+						ZipfianGenerator.ZIPFIAN_CONSTANT);
+				// The loaded records are accessed with a Zipfian distribution too
+				zetans[i] = zetaCache.zeta(tables[i].recordCount, ZipfianGenerator.ZIPFIAN_CONSTANT);
+				break;
+			case "zipfian":
+			case "scrambledzipfian":
+				zetans[i] = zetaCache.zeta(tables[i].recordCount, ZipfianGenerator.ZIPFIAN_CONSTANT);
+				break;
+			case "uniform":
+				break;
+			default:
 				throw new WorkloadException(requestDistribution + " is not supported");
 			}
+			insertIdBlocks[i] = new AtomicLong(tables[i].recordCount); // Starts from the record count
 		}
 
-		insertSequences = new CounterGenerator[TABLE_NAMES.length];
-		for (int i = 0; i < TABLE_NAMES.length; i++) {
-			insertSequences[i] = new CounterGenerator(TABLE_RECORDS[i]); // Starts from TABLE_RECORDS
+		// The records of all the tables form a single sequence, in the order of the
+		// tables, and this client loads the part selected by insertstart and
+		// insertcount. Find the ids of each table that fall within that part.
+
+		long insertStart = Long.parseLong(p.getProperty(INSERT_START_PROPERTY, INSERT_START_PROPERTY_DEFAULT));
+		long insertCount = Long
+				.parseLong(p.getProperty(INSERT_COUNT_PROPERTY, Long.toString(totalRecordCount - insertStart)));
+		if (insertStart < 0 || insertCount < 0 || insertStart + insertCount > totalRecordCount) {
+			throw new WorkloadException("insertstart and insertcount must select records within recordcount");
+		}
+
+		loadStartIds = new long[tables.length];
+		loadCounts = new long[tables.length];
+		long tableStart = 0;
+		for (int i = 0; i < tables.length; i++) {
+			long tableEnd = tableStart + tables[i].recordCount;
+			long start = Math.max(insertStart, tableStart);
+			long end = Math.min(insertStart + insertCount, tableEnd);
+			loadStartIds[i] = start - tableStart;
+			loadCounts[i] = Math.max(0, end - start);
+			tableStart = tableEnd;
 		}
 
 		// Parse field properties from the given Properties object.
 
 		fieldCount = Integer.parseInt(p.getProperty("fieldcount", Integer.toString(fieldCount)));
 		fieldLength = Long.parseLong(p.getProperty("fieldlength", Long.toString(fieldLength)));
-		fieldLengthGenerator = new UniformLongGenerator(1, fieldLength);
+		fieldNames = new String[fieldCount];
+		for (int i = 0; i < fieldCount; i++) {
+			fieldNames[i] = "field" + i;
+		}
 
 		minContentChars = Long.parseLong(p.getProperty("mincontentchars", Long.toString(minContentChars)));
 		maxContentChars = Long.parseLong(p.getProperty("maxcontentchars", Long.toString(maxContentChars)));
-		longContentFieldLengthGenerator = new UniformLongGenerator(minContentChars, maxContentChars);
+
+		// The pool must be able to hold at least one value of the maximum length.
+		payloadPoolSize = Integer.parseInt(p.getProperty("payloadpoolsize", Integer.toString(payloadPoolSize)));
+		payloadPoolSize = (int) Math.max(payloadPoolSize, 2 * Math.max(fieldLength, maxContentChars));
+		payloadPool = new PayloadPool(payloadPoolSize, new Random());
 
 		// Parse operation proportions from the given Properties object.
 
@@ -154,206 +261,355 @@ public class MultiTableWorkload extends Workload {
 		updateProportion = Double.parseDouble(p.getProperty("updateproportion", "0.5"));
 		insertProportion = Double.parseDouble(p.getProperty("insertproportion", "0"));
 		deleteProportion = Double.parseDouble(p.getProperty("deleteproportion", "0"));
+		viewPostProportion = Double.parseDouble(p.getProperty("viewpostproportion", "0"));
 
 		System.out.println("readProportion" + readProportion);
 		System.out.println("updateProportion:" + updateProportion);
 		System.out.println("insertProportion:" + insertProportion);
 		System.out.println("deleteProportion:" + deleteProportion);
+		System.out.println("viewPostProportion:" + viewPostProportion);
+		System.out.println("durabilityProfile:" + p.getProperty(DurabilityProfile.PROPERTY, "default"));
+
+		String viewPostTable = p.getProperty("viewposttable", "posts");
+		viewPostComments = Integer.parseInt(p.getProperty("viewpostcomments", Integer.toString(viewPostComments)));
+		int childCount = 0;
+		viewPostChildren = new int[tables.length];
+		for (int i = 0; i < tables.length; i++) {
+			if (tables[i].name.equals(viewPostTable)) {
+				viewPostTableIndex = i;
+			}
+		}
+		for (int i = 0; i < tables.length; i++) {
+			if (viewPostTableIndex >= 0 && tables[i].parentIndex == viewPostTableIndex) {
+				viewPostChildren[childCount++] = i;
+			}
+		}
+		viewPostChildren = Arrays.copyOf(viewPostChildren, childCount);
+		if (viewPostProportion > 0 && viewPostTableIndex < 0) {
+			throw new WorkloadException("viewposttable " + viewPostTable + " is not one of the tables");
+		}
 
-		// Parse operation counts from the given Properties object and initialize
-		// AtomicIntegers.
+		// Parse operation counts from the given Properties object. Each thread
+		// receives its share of them in initThread().
 
 		operationCount = Integer.parseInt(p.getProperty("operationcount", Integer.toString(operationCount)));
 
-		operationCounters = new HashMap<>();
-		operationCounters.put("read", new AtomicInteger((int) (operationCount * readProportion)));
-		operationCounters.put("update", new AtomicInteger((int) (operationCount * updateProportion)));
-		operationCounters.put("insert", new AtomicInteger((int) (operationCount * insertProportion)));
-		operationCounters.put("delete", new AtomicInteger((int) (operationCount * deleteProportion)));
+		// Fixed-width keys are wide enough for every loaded record and every "run"
+		// insert, unless a width is given.
+		String keyFormat = p.getProperty("keyformat", "plain");
+		int keyWidth = Integer.parseInt(p.getProperty("keywidth",
+				Integer.toString(Long.toString(totalRecordCount + operationCount).length() + 1)));
+		keyCodec = new KeyCodec(keyFormat, keyWidth);
+
+		double[] operationProportions = new double[Operation.VALUES.length];
+		operationProportions[Operation.READ.ordinal()] = readProportion;
+		operationProportions[Operation.UPDATE.ordinal()] = updateProportion;
+		operationProportions[Operation.INSERT.ordinal()] = insertProportion;
+		operationProportions[Operation.DELETE.ordinal()] = deleteProportion;
+		operationProportions[Operation.VIEW_POST.ordinal()] = viewPostProportion;
+
+		operationTotals = new long[Operation.VALUES.length];
+		for (int i = 0; i < operationTotals.length; i++) {
+			operationTotals[i] = (long) (operationCount * operationProportions[i]);
+		}
+		if (Arrays.stream(operationProportions).sum() <= 0) {
+			throw new WorkloadException("At least one operation proportion must be greater than 0");
+		}
+		operationSampler = new AliasTable(operationProportions);
+	}
+
+	/**
+	 * This method is called once by each client thread, before its first
+	 * operation. It creates the state owned by the thread, which is then passed
+	 * to doInsert and doTransaction.
+	 * 
+	 * @param p
+	 * @param mythreadid
+	 * @param threadcount
+	 * @return the ThreadState of the calling thread.
+	 */
+	@Override
+	public Object initThread(Properties p, int mythreadid, int threadcount) throws WorkloadException {
+		DB binding = BINDINGS.get();
+		boolean async = Boolean.TRUE.equals(ASYNC_BINDINGS.get());
+		BINDINGS.remove();
+		ASYNC_BINDINGS.remove();
+		if (viewPostProportion > 0 && binding == null) {
+			throw new WorkloadException("viewpostproportion needs a binding that calls "
+					+ "MultiTableWorkload.registerBinding() in its init()");
+		}
+		if (async && Boolean.parseBoolean(p.getProperty("dotransactions", "true"))) {
+			// The reads return before the response and the inserts before they are
+			// acknowledged, so neither can be built upon.
+			if (viewPostProportion > 0) {
+				throw new WorkloadException("viewpostproportion cannot be used with an asynchronous binding");
+			}
+			if (recentInserts != null) {
+				throw new WorkloadException("requestdistribution=latest cannot be used with an asynchronous binding");
+			}
+		}
+		return new ThreadState(mythreadid, threadcount, binding);
+	}
 
-		// System.out.println("prova__1");
+	/**
+	 * Registers the binding of the calling client thread. Bindings call it from
+	 * their init() so that the requests of a composite operation ("view post") go
+	 * straight to them, and are neither measured one by one by the DBWrapper nor
+	 * hidden from the optional ChildReader interface.
+	 * 
+	 * @param db The binding, i.e. the DB the DBWrapper of the thread delegates to.
+	 */
+	public static void registerBinding(DB db) {
+		registerBinding(db, false);
 	}
 
 	/**
-	 * This method generates the next key for the given table. If incrementSequence
-	 * is true, the next key in the sequence is generated; otherwise, a key based on
-	 * the Zipfian distribution is generated.
+	 * Registers the binding of the calling client thread, telling whether its
+	 * operations return once sent rather than once completed. The "view post"
+	 * operation and the "latest" distribution, which depend on the result of
+	 * earlier requests, are then rejected.
 	 * 
+	 * @param db    The binding, i.e. the DB the DBWrapper of the thread delegates
+	 *              to.
+	 * @param async true if the operations of the binding are asynchronous.
+	 */
+	public static void registerBinding(DB db, boolean async) {
+		BINDINGS.set(db);
+		ASYNC_BINDINGS.set(async);
+	}
+
+	/**
+	 * This method splits each of the given totals among `parts` parts, assigning
+	 * a contiguous range to each part. Every part receives total / parts items of
+	 * each total, and the remainders are handed out round-robin, continuing from
+	 * one total to the next, so that the overall number of items received by a
+	 * part is the same that YCSB assigns to the corresponding client thread.
+	 * 
+	 * @param totals
+	 * @param parts
+	 * @param part
+	 * @return for each total, the start and the length of the range of `part`.
+	 */
+	static long[][] partition(long[] totals, int parts, int part) {
+		long[][] ranges = new long[totals.length][2];
+		// First part receiving one of the remaining items of the current total.
+		int offset = 0;
+		for (int i = 0; i < totals.length; i++) {
+			long base = totals[i] / parts;
+			int remainder = (int) (totals[i] % parts);
+			long start = 0;
+			for (int j = 0; j < part; j++) {
+				start += base + (Math.floorMod(j - offset, parts) < remainder ? 1 : 0);
+			}
+			ranges[i][0] = start;
+			ranges[i][1] = base + (Math.floorMod(part - offset, parts) < remainder ? 1 : 0);
+			offset = (offset + remainder) % parts;
+		}
+		return ranges;
+	}
+
+	/**
+	 * This method generates the key of an existing record of the given table,
+	 * based on the request distribution (Zipfian or Uniform).
+	 * 
+	 * @param state
 	 * @param tableIndex
-	 * @param incrementSequence
 	 * @return the key, which is the prefix concatenated with the generated value.
 	 */
-	private String nextKey(int tableIndex, boolean incrementSequence) {
+	private String nextKey(ThreadState state, int tableIndex) {
 
-		Long nextValue = incrementSequence ? keySequences[tableIndex].nextValue()
-				: generators[tableIndex].nextValue().longValue();
-		return prefix + nextValue;
+		long nextValue = state.generators[tableIndex].nextValue().longValue();
+		return state.key(prefixBytes, nextValue);
+	}
+
+	/**
+	 * This method draws the id of a key of the given table that has not been
+	 * deleted. Keys are drawn from the request distribution up to
+	 * MAX_KEY_ATTEMPTS times; if all of them were deleted, the last one is
+	 * remapped to the next live key, so the time spent here stays bounded even
+	 * when most of the popular keys are gone.
+	 * 
+	 * @param state
+	 * @param tableIndex
+	 * @return the id of a live key, or -1 if every key of the table was deleted.
+	 */
+	private long nextLiveKeyId(ThreadState state, int tableIndex) {
+		ConcurrentBitSet deleted = deletedKeys[tableIndex];
+		long keyId = 0;
+		for (int attempt = 0; attempt < MAX_KEY_ATTEMPTS; attempt++) {
+			keyId = state.generators[tableIndex].nextValue().longValue();
+			if (!deleted.get(keyId)) {
+				return keyId;
+			}
+		}
+		return deleted.nextClearBit(keyId);
+	}
+
+	/**
+	 * This method draws the key of a recent "run" insert of the given table, for
+	 * the "latest" distribution. A recency rank is drawn from a Zipfian
+	 * distribution over the window of recent inserts followed by the loaded
+	 * records: rank 0 is the last acknowledged insert. When the rank falls
+	 * outside the inserts acknowledged so far, a loaded record is used instead.
+	 * 
+	 * @param state
+	 * @param tableIndex
+	 * @return the key of a recent insert, or null to use a loaded record.
+	 */
+	private String nextRecentKey(ThreadState state, int tableIndex) {
+		if (recentInserts == null) {
+			return null;
+		}
+		long rank = state.recencyRanks[tableIndex].nextValue().longValue();
+		long id = recentInserts[tableIndex].get(rank);
+		return id < 0 ? null : state.key(runInsertPrefixBytes, id);
 	}
 
 	/**
 	 * This method generates field values for a record. It creates a map with
 	 * `fieldCount` number of fields, each containing a random string of length
-	 * determined by `fieldLengthGenerator`. Additionally, it adds a field named
+	 * between 1 and `fieldLength`. Additionally, it adds a field named
 	 * "longContent" that contains a random string of length between
 	 * `minContentChars` and `maxContentChars`.
 	 *
+	 * The values are slices of the shared payload pool, so no random characters
+	 * are generated and no bytes are copied per operation. The HashMap and the
+	 * iterators belong to the thread and are reused by each call.
+	 *
+	 * @param state
 	 * @return the HashMap containing field values.
 	 */
-	private HashMap<String, ByteIterator> generateValues() {
+	private HashMap<String, ByteIterator> generateValues(ThreadState state) {
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		HashMap<String, ByteIterator> values = state.values;
+		// Drop the foreign key added to the previous record, if any.
+		if (state.foreignKey != null) {
+			values.remove(state.foreignKey);
+			state.foreignKey = null;
+		}
 
-		// Create a new HashMap to store the field values.
-		HashMap<String, ByteIterator> values = new HashMap<>();
 		for (int i = 0; i < fieldCount; i++) {
-			// Generate a random string for each field and put it into the HashMap.
-			long fieldLen = fieldLengthGenerator.nextValue();
-			String fieldValue = getRandomString(fieldLen);
-			values.put("field" + i, new StringByteIterator(fieldValue));
+			// Take a random slice of the pool for each field and put it into the HashMap.
+			int fieldLen = (int) random.nextLong(1, fieldLength + 1);
+			values.put(fieldNames[i], payloadPool.slice(state.fieldValues[i], fieldLen, random));
 		}
 
-		// Generate a random string for the longContent field and put it into the
-		// HashMap.
-		long longContentFieldLen = longContentFieldLengthGenerator.nextValue();
-		String longContentFieldValue = getRandomString(longContentFieldLen);
-		values.put("longContent", new StringByteIterator(longContentFieldValue));
+		// Take a random slice for the longContent field and put it into the HashMap.
+		int longContentFieldLen = (int) random.nextLong(minContentChars, maxContentChars + 1);
+		values.put("longContent", payloadPool.slice(state.longContentValue, longContentFieldLen, random));
 
 		return values;
 	}
 
 	/**
-	 * This method generates a random alphanumeric string of length n.
+	 * This method adds the foreign key of a new record of the given table, if the
+	 * table has a parent. The referenced key is drawn from the parent table with
+	 * the request distribution.
 	 * 
-	 * @param n
-	 * @return the generated random string.
+	 * @param state
+	 * @param tableIndex
+	 * @param values
 	 */
-	private String getRandomString(long n) {
-		// Define the character set for the random string.
-
-		String AlphaNumericString = "ABCDEFGHIJKLMNOPQRSTUVWXYZ" + "0123456789" + "abcdefghijklmnopqrstuvxyz";
-
-		// Initialize a StringBuilder to build the random string.
-
-		StringBuilder sb = new StringBuilder();
-
-		for (long i = 0; i < n; i++) {
-			int index = (int) (AlphaNumericString.length() * Math.random());
-			sb.append(AlphaNumericString.charAt(index));
+	private void addForeignKey(ThreadState state, int tableIndex, HashMap<String, ByteIterator> values) {
+		TableSchema table = tables[tableIndex];
+		if (table.parentIndex >= 0) {
+			String parentKey = nextKey(state, table.parentIndex);
+			values.put(table.foreignKey, new StringByteIterator(parentKey));
+			state.foreignKey = table.foreignKey;
 		}
-
-		return sb.toString();
 	}
 
 	/**
-	 * This method is responsible for executing an "insert" operation. It generates
-	 * the field values, selects the table, creates a new record, and inserts it
-	 * into the selected table.
+	 * This method is responsible for executing an "insert" operation during
+	 * "load". It generates the field values, selects the table, creates a new
+	 * record, and inserts it into the selected table.
 	 * 
 	 * @param db
 	 * @param threadstate
 	 * @return the result of the insert operation.
 	 */
 	public boolean doInsert(DB db, Object threadstate) {
-		// Generate field values
-		HashMap<String, ByteIterator> values = generateValues();
-
-		int currentIndex = currentTableIndex.get();
-		int currentCount = currentRecordCount.get();
-
-		// If the current record count reaches the limit for the current table, move to
-		// the next table and reset the record count.
-		if (currentCount >= TABLE_RECORDS[currentIndex]) {
-			System.out.println("table=" + TABLE_NAMES[currentIndex] + ";record uploaded=" + currentRecordCount);
-			if (currentTableIndex.compareAndSet(currentIndex, currentIndex + 1)) {
-				// If the currentTableIndex is incremented successfully, reset the
-				// currentRecordCount
-				currentIndex++;
-				currentRecordCount.set(0);
-			}
+		ThreadState state = (ThreadState) threadstate;
 
+		// Generate field values
+		HashMap<String, ByteIterator> values = generateValues(state);
+
+		// Each thread loads its own contiguous slice of every table, one table after
+		// the other. Move to the next table once the slice of the current one is
+		// done.
+		int currentIndex = state.loadTableIndex;
+		while (currentIndex < tables.length && state.loadNextId[currentIndex] == state.loadEndId[currentIndex]) {
+			currentIndex++;
 		}
-
-		// Due to the specified percentages for each table, the calculated number of
-		// records for a given table may not account for all possible rows, especially
-		// when the total record count is not perfectly divisible by the percentages. As
-		// a result, there might be remaining rows unconsidered.
-		// To ensure that every doInsert operation is always tied to a valid table, the
-		// currentIndex is calculated modulo the length of the array. This prevents an
-		// ArrayIndexOutOfBoundsException by wrapping around to the start of the array
-		// when it exceeds the array size.
-		currentIndex %= TABLE_NAMES.length;
-
-		// Generate the key for the new record
-		String key = nextKey(currentIndex, true);
-
-		// Increment the record count
-		currentRecordCount.incrementAndGet();
-
-		// If the table is "posts" or "comments", add the additional pairs to the
-		// HashMap
-		if (TABLE_NAMES[currentIndex].equals("posts")) {
-			// Generate a user_id using the proper generator
-			String userId = nextKey(Arrays.asList(TABLE_NAMES).indexOf("users"), false);
-			values.put("user_id", new StringByteIterator(userId));
-		} else if (TABLE_NAMES[currentIndex].equals("comments")) {
-			// Generate a post_id using the proper generator
-			String postId = nextKey(Arrays.asList(TABLE_NAMES).indexOf("posts"), false);
-			values.put("post_id", new StringByteIterator(postId));
+		state.loadTableIndex = currentIndex;
+		if (currentIndex == tables.length) {
+			System.out.println("no records left to load for this thread");
+			return false;
 		}
 
-		// Insert the new record to the database
-		return db.insert(TABLE_NAMES[currentIndex], key, values).isOk();
+		// If the table has a parent (e.g. "posts" or "comments"), add the foreign key
+		// to the HashMap
+		addForeignKey(state, currentIndex, values);
 
-	}
+		// Generate the key for the new record. It is generated last, so that it is
+		// the one available to the binding through encodedKey().
+		String key = state.key(prefixBytes, state.loadNextId[currentIndex]++);
 
-	/**
-	 * This method selects a table index based on the defined probabilities.
-	 * 
-	 * @return the selected table index
-	 */
-	private int selectTableIndex() {
-		// Generate a random number.
-		double p = ThreadLocalRandom.current().nextDouble();
-		double cumulativeProbability = 0.0;
-		// Iterate through the table probabilities. If the random number is less than or
-		// equal to the cumulative probability, return the current table index.
-		for (int i = 0; i < TABLE_NAMES.length; i++) {
-			cumulativeProbability += TABLE_PROBABILITIES[i];
-			if (p <= cumulativeProbability) {
-				return i;
-			}
+		// Insert the new record to the database
+		if (!db.insert(tables[currentIndex].name, key, values).isOk()) {
+			return false;
 		}
-		return TABLE_NAMES.length - 1; // Fallback, shouldn't happen
+		loadedRecords[currentIndex].increment();
+		return true;
+
 	}
 
 	/**
 	 * This function provides the next operation to be performed in the
-	 * doTransaction method.
+	 * doTransaction method. Operations are drawn in constant time from the
+	 * thread's alias table, weighted by the operations it has left; the table is
+	 * only rebuilt when an operation runs out. Once the thread has run all its
+	 * operations (e.g. operationcount is not a multiple of the proportions), the
+	 * configured proportions are used instead.
 	 * 
+	 * @param state
 	 * @return The operation type to be performed next.
 	 */
-	private String getNextOperation() {
-		// Compute total remaining operations
-		int totalRemainingOperations = operationCounters.values().stream().mapToInt(AtomicInteger::get).sum();
+	private Operation getNextOperation(ThreadState state) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
 
-		if (totalRemainingOperations == 0) {
-			throw new RuntimeException("No operations remaining.");
+		if (state.totalRemainingOperations == 0) {
+			return Operation.VALUES[operationSampler.next(random)];
 		}
 
-		// Select a random point within the range of total remaining operations
-		double randomPoint = ThreadLocalRandom.current().nextDouble() * totalRemainingOperations;
-
-		// Iterate over the operations map, accumulating the count until it surpasses
-		// the random point
-		double cumulativeProbability = 0.0;
-		for (Map.Entry<String, AtomicInteger> operationEntry : operationCounters.entrySet()) {
-			cumulativeProbability += operationEntry.getValue().get();
-			if (randomPoint <= cumulativeProbability) {
+		long[] remainingOperations = state.remainingOperations;
+		while (true) {
+			int operation = state.remainingOperationSampler.next(random);
+			if (remainingOperations[operation] > 0) {
 				// Decrement the counter for the selected operation
-				operationEntry.getValue().decrementAndGet();
-				return operationEntry.getKey();
+				remainingOperations[operation]--;
+				state.totalRemainingOperations--;
+				return Operation.VALUES[operation];
 			}
+			// The selected operation ran out: draw from the ones left from now on.
+			state.remainingOperationSampler = new AliasTable(toWeights(remainingOperations));
 		}
+	}
 
-		throw new RuntimeException("Unexpected error. No operation selected.");
+	/**
+	 * This method converts counts to the weights of an alias table.
+	 * 
+	 * @param counts
+	 * @return the weights.
+	 */
+	private static double[] toWeights(long[] counts) {
+		double[] weights = new double[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			weights[i] = counts[i];
+		}
+		return weights;
 	}
 
 	/**
@@ -366,45 +622,74 @@ public class MultiTableWorkload extends Workload {
 	 * @return true if the transaction was successful.
 	 */
 	public boolean doTransaction(DB db, Object threadstate) {
+		ThreadState state = (ThreadState) threadstate;
 
 		// Select table for the transaction
-		int tableIndex = selectTableIndex();
-		String tableName = TABLE_NAMES[tableIndex];
+		int tableIndex = tableSampler.next(ThreadLocalRandom.current());
+		String tableName = tables[tableIndex].name;
 
-		// Generate the key for the transaction
-		String key;
-		do {
-			key = nextKey(tableIndex, false);
-		} while (deletedKeys.contains(key));
-
-		// Initialize a HashMap to hold the result of a "read" operation.
-		HashMap result = new HashMap<>();
+		// Clear the HashMap that holds the result of a "read" operation.
+		HashMap<String, ByteIterator> result = state.result;
+		result.clear();
 
 		// System.out.println("table="+tableName+";key="+key);
 
 		Status status;
 
-		String selectedOperation = getNextOperation();
+		Operation selectedOperation = getNextOperation(state);
+		if (selectedOperation == Operation.VIEW_POST) {
+			return doViewPost(state);
+		}
+
+		// Generate the key for the transaction, skipping the deleted ones.
+		// Inserts use a new key instead.
+		long keyId = 0;
+		String key = null;
+		if (selectedOperation == Operation.READ || selectedOperation == Operation.UPDATE) {
+			key = nextRecentKey(state, tableIndex);
+		}
+		if (selectedOperation != Operation.INSERT && key == null) {
+			keyId = nextLiveKeyId(state, tableIndex);
+			if (keyId < 0) {
+				System.out.println("table=" + tableName + ";every record was deleted");
+				return false;
+			}
+			key = state.key(prefixBytes, keyId);
+		}
 
 		switch (selectedOperation) {
 		default:
 			status = Status.ERROR;
 			break;
-		case "read":
+		case READ:
 			status = db.read(tableName, key, null, result);
 			break;
-		case "update":
-			HashMap values = generateValues();
+		case UPDATE:
+			HashMap<String, ByteIterator> values = generateValues(state);
 			status = db.update(tableName, key, values);
 			break;
-		case "insert":
-			HashMap insertValues = generateValues();
+		case INSERT:
+			HashMap<String, ByteIterator> insertValues = generateValues(state);
+			addForeignKey(state, tableIndex, insertValues);
 			// Add the run-specific prefix for the key
-			key = prefix_run_insert + prefix + insertSequences[tableIndex].nextValue();
+			long insertId = state.nextInsertId(tableIndex);
+			key = state.key(runInsertPrefixBytes, insertId);
 			status = db.insert(tableName, key, insertValues);
+			// Once acknowledged, the record can be read back by the "latest" distribution
+			if (status.isOk() && recentInserts != null) {
+				recentInserts[tableIndex].add(insertId);
+			}
 			break;
-		case "delete":
-			deletedKeys.add(key);
+		case DELETE:
+			// Mark the key as deleted before deleting it, so that no other thread
+			// picks it from now on. If another thread marked it first, pick a new one.
+			while (!deletedKeys[tableIndex].set(keyId)) {
+				keyId = nextLiveKeyId(state, tableIndex);
+				if (keyId < 0) {
+					return false;
+				}
+				key = state.key(prefixBytes, keyId);
+			}
 			status = db.delete(tableName, key);
 			break;
 		}
@@ -412,4 +697,1063 @@ public class MultiTableWorkload extends Workload {
 		return status.isOk();
 	}
 
+	/**
+	 * This method executes a "view post" operation, i.e. the requests needed to
+	 * show a post to a user: the post, its author and up to `viewPostComments` of
+	 * its comments. The requests go straight to the binding, bypassing the
+	 * per-request measurements, and the whole operation is measured as VIEW_POST.
+	 * 
+	 * @param state
+	 * @return true if all the reads were successful.
+	 */
+	private boolean doViewPost(ThreadState state) {
+		String postKey = nextRecentKey(state, viewPostTableIndex);
+		if (postKey == null) {
+			long keyId = nextLiveKeyId(state, viewPostTableIndex);
+			if (keyId < 0) {
+				System.out.println("table=" + tables[viewPostTableIndex].name + ";every record was deleted");
+				return false;
+			}
+			postKey = state.key(prefixBytes, keyId);
+		}
+
+		Measurements measurements = Measurements.getMeasurements();
+		long intendedStartTime = measurements.getIntendedStartTimeNs();
+		long startTime = System.nanoTime();
+
+		Status status = readPostView(state.binding, state, postKey);
+
+		long endTime = System.nanoTime();
+		String measurementName = status.isOk() ? "VIEW_POST" : "VIEW_POST-FAILED";
+		measurements.measure(measurementName, (int) ((endTime - startTime) / 1000));
+		measurements.measureIntended(measurementName, (int) ((endTime - intendedStartTime) / 1000));
+		measurements.reportStatus("VIEW_POST", status);
+
+		return status.isOk();
+	}
+
+	/**
+	 * This method issues the reads of a "view post" operation. The comments are
+	 * read through ChildReader when the binding implements it; otherwise the
+	 * same number of random comments are read by key, to keep the number of
+	 * requests.
+	 * 
+	 * @param db
+	 * @param state
+	 * @param postKey
+	 * @return the status of the first failed read, or OK.
+	 */
+	private Status readPostView(DB db, ThreadState state, String postKey) {
+		TableSchema postTable = tables[viewPostTableIndex];
+
+		HashMap<String, ByteIterator> post = state.result;
+		post.clear();
+		Status status = db.read(postTable.name, postKey, null, post);
+		if (!status.isOk()) {
+			return status;
+		}
+
+		if (postTable.parentIndex >= 0) {
+			// Some databases return the column names in upper case.
+			ByteIterator authorId = post.get(postTable.foreignKey);
+			if (authorId == null) {
+				authorId = post.get(postTable.foreignKey.toUpperCase());
+			}
+			String authorKey = authorId != null ? authorId.toString() : nextKey(state, postTable.parentIndex);
+			state.parentResult.clear();
+			status = db.read(tables[postTable.parentIndex].name, authorKey, null, state.parentResult);
+			if (!status.isOk()) {
+				return status;
+			}
+		}
+
+		for (int childIndex : viewPostChildren) {
+			TableSchema childTable = tables[childIndex];
+			state.childResults.clear();
+			if (db instanceof ChildReader) {
+				status = ((ChildReader) db).readChildren(childTable.name, childTable.foreignKey, postKey,
+						viewPostComments, state.childResults);
+				if (!status.isOk()) {
+					return status;
+				}
+				continue;
+			}
+			for (int i = 0; i < viewPostComments; i++) {
+				long keyId = nextLiveKeyId(state, childIndex);
+				if (keyId < 0) {
+					break;
+				}
+				state.parentResult.clear();
+				status = db.read(childTable.name, state.key(prefixBytes, keyId), null, state.parentResult);
+				if (!status.isOk()) {
+					return status;
+				}
+			}
+		}
+		return Status.OK;
+	}
+
+	/**
+	 * This method is called once after all the threads are done. It reports the
+	 * number of records loaded into each table.
+	 */
+	@Override
+	public void cleanup() throws WorkloadException {
+		for (int i = 0; i < tables.length; i++) {
+			long loaded = loadedRecords[i].sum();
+			if (loaded > 0) {
+				System.out.println("table=" + tables[i].name + ";record uploaded=" + loaded);
+			}
+		}
+	}
+
+	/**
+	 * This method returns the bytes of a key generated by this workload, so that
+	 * bindings storing keys as bytes do not have to encode them again. Only the
+	 * last key generated by the calling thread is available, i.e. the key passed
+	 * to the current DB operation.
+	 * 
+	 * @param key the key received by the binding
+	 * @return the encoded key, or null if `key` is not the last key generated by
+	 *         the calling thread.
+	 */
+	public static EncodedKey encodedKey(String key) {
+		EncodedKey encoded = LAST_KEY.get();
+		// Compare the references: the bytes belong to that very String instance.
+		return encoded != null && encoded.string == key ? encoded : null;
+	}
+
+	/**
+	 * State owned by a single client thread, created by initThread(). It holds the
+	 * thread's own key generators, its share of the operation counts, the ids
+	 * reserved for its "run" inserts and the buffers reused by every operation, so
+	 * that threads only share read-only data and a few coarse-grained counters.
+	 */
+	private final class ThreadState {
+
+		// Generators for each table (Zipfian or Uniform).
+		private final NumberGenerator[] generators;
+		// Generators of the recency ranks for each table, with "latest".
+		private final NumberGenerator[] recencyRanks;
+		// Operations of each type left to this thread, indexed by Operation ordinal,
+		// their sum and the sampler weighted by them.
+		private final long[] remainingOperations;
+		private long totalRemainingOperations;
+		private AliasTable remainingOperationSampler;
+		// Next id and end of the slice of each table loaded by this thread, and the
+		// table currently being loaded.
+		private final long[] loadNextId;
+		private final long[] loadEndId;
+		private int loadTableIndex;
+		// Next id and end of the block of ids reserved for "run" inserts, per table.
+		private final long[] nextInsertId;
+		private final long[] insertIdLimit;
+
+		// Buffers reused by every operation of the thread.
+		private final EncodedKey encodedKey;
+		private final HashMap<String, ByteIterator> values;
+		// Foreign key currently in `values`, if any.
+		private String foreignKey;
+		private final SliceByteIterator[] fieldValues;
+		private final SliceByteIterator longContentValue = new SliceByteIterator();
+		private final HashMap<String, ByteIterator> result = new HashMap<>();
+		private final HashMap<String, ByteIterator> parentResult = new HashMap<>();
+		private final Vector<HashMap<String, ByteIterator>> childResults = new Vector<>();
+
+		// The binding behind the DBWrapper, or null if it is not registered.
+		private final DB binding;
+
+		/**
+		 * Creates the state of a thread.
+		 * 
+		 * @param threadId    the id of the thread, between 0 and threadCount - 1
+		 * @param threadCount the number of client threads
+		 * @param binding     the binding registered by the thread, or null
+		 */
+		ThreadState(int threadId, int threadCount, DB binding) {
+			this.binding = binding;
+			generators = new NumberGenerator[tables.length];
+			for (int i = 0; i < tables.length; i++) {
+				if ("zipfian".equals(requestDistribution)) {
+					generators[i] = new ZipfianGenerator(0, tables[i].recordCount - 1,
+							ZipfianGenerator.ZIPFIAN_CONSTANT, zetans[i]);
+				} else if ("scrambledzipfian".equals(requestDistribution)) {
+					generators[i] = new ScrambledGenerator(new ZipfianGenerator(0, tables[i].recordCount - 1,
+							ZipfianGenerator.ZIPFIAN_CONSTANT, zetans[i]), tables[i].recordCount);
+				} else if (recentInserts != null) {
+					// Among the loaded records, the last ones are the most popular
+					generators[i] = new ReversedGenerator(new ZipfianGenerator(0, tables[i].recordCount - 1,
+							ZipfianGenerator.ZIPFIAN_CONSTANT, zetans[i]), tables[i].recordCount);
+				} else {
+					generators[i] = new UniformLongGenerator(0, tables[i].recordCount - 1);
+				}
+			}
+
+			recencyRanks = new NumberGenerator[tables.length];
+			if (recentInserts != null) {
+				for (int i = 0; i < tables.length; i++) {
+					recencyRanks[i] = new ZipfianGenerator(0,
+							recentInserts[i].capacity() + tables[i].recordCount - 1,
+							ZipfianGenerator.ZIPFIAN_CONSTANT, latestZetans[i]);
+				}
+			}
+
+			long[][] operationShares = partition(operationTotals, threadCount, threadId);
+			remainingOperations = new long[Operation.VALUES.length];
+			for (int i = 0; i < remainingOperations.length; i++) {
+				remainingOperations[i] = operationShares[i][1];
+				totalRemainingOperations += remainingOperations[i];
+			}
+			if (totalRemainingOperations > 0) {
+				remainingOperationSampler = new AliasTable(toWeights(remainingOperations));
+			}
+
+			long[][] loadShares = partition(loadCounts, threadCount, threadId);
+			loadNextId = new long[tables.length];
+			loadEndId = new long[tables.length];
+			for (int i = 0; i < tables.length; i++) {
+				loadNextId[i] = loadStartIds[i] + loadShares[i][0];
+				loadEndId[i] = loadNextId[i] + loadShares[i][1];
+			}
+
+			nextInsertId = new long[tables.length];
+			insertIdLimit = new long[tables.length];
+
+			encodedKey = new EncodedKey(
+					Math.max(prefixBytes.length, runInsertPrefixBytes.length) + keyCodec.maxIdLength());
+			LAST_KEY.set(encodedKey);
+
+			// Room for all the fields plus the foreign key, without rehashing.
+			values = new HashMap<>((fieldCount + 2) * 4 / 3 + 1);
+			fieldValues = new SliceByteIterator[fieldCount];
+			for (int i = 0; i < fieldCount; i++) {
+				fieldValues[i] = new SliceByteIterator();
+			}
+		}
+
+		/**
+		 * Builds a key from a prefix and a numeric id, encoding it into the thread's
+		 * buffer. Until the next call, the bytes stay available through
+		 * encodedKey().
+		 * 
+		 * @param keyPrefix
+		 * @param id
+		 * @return the key.
+		 */
+		String key(byte[] keyPrefix, long id) {
+			int length = keyCodec.encode(keyPrefix, id, encodedKey.bytes);
+			encodedKey.length = length;
+			encodedKey.string = new String(encodedKey.bytes, 0, length, StandardCharsets.UTF_8);
+			return encodedKey.string;
+		}
+
+		/**
+		 * Returns the id of the next "run" insert into the given table, reserving a
+		 * new block of ids when the current one is used up.
+		 * 
+		 * @param tableIndex
+		 * @return the id of the new record.
+		 */
+		long nextInsertId(int tableIndex) {
+			if (nextInsertId[tableIndex] == insertIdLimit[tableIndex]) {
+				nextInsertId[tableIndex] = insertIdBlocks[tableIndex].getAndAdd(INSERT_ID_BLOCK_SIZE);
+				insertIdLimit[tableIndex] = nextInsertId[tableIndex] + INSERT_ID_BLOCK_SIZE;
+			}
+			return nextInsertId[tableIndex]++;
+		}
+	}
+
+	/**
+	 * Durability and consistency level requested with the durability.profile
+	 * property, which every binding maps to its own settings so that the
+	 * databases are compared at equivalent safety levels. Without the property
+	 * the bindings keep the defaults of their database.
+	 */
+	public enum DurabilityProfile {
+		/**
+		 * Writes are acknowledged once durable on a majority of the replicas and
+		 * reads return the last acknowledged write.
+		 */
+		STRICT,
+		/**
+		 * Writes are acknowledged once durable on a majority of the replicas or in
+		 * the write-ahead log, reads may be served by a single replica.
+		 */
+		BALANCED,
+		/**
+		 * Writes are acknowledged by a single replica, before being flushed to disk.
+		 */
+		FAST;
+
+		public static final String PROPERTY = "durability.profile";
+
+		/**
+		 * Returns the profile set in the properties.
+		 * 
+		 * @param p The properties of the benchmark.
+		 * @return The profile, or null if the property is not set.
+		 */
+		public static DurabilityProfile of(Properties p) {
+			String value = p.getProperty(PROPERTY);
+			return value == null ? null : valueOf(value.trim().toUpperCase());
+		}
+	}
+
+	/**
+	 * Optional interface of the bindings that can look records up by foreign key,
+	 * used by the "view post" operation to read the comments of a post. Bindings
+	 * that do not implement it are sent point reads of random comments instead.
+	 */
+	public interface ChildReader {
+
+		/**
+		 * Reads the records of a table that reference a given parent record.
+		 * 
+		 * @param table      The name of the table
+		 * @param foreignKey The field holding the key of the parent record
+		 * @param parentKey  The primary key of the parent record
+		 * @param limit      The maximum number of records to read
+		 * @param result     A Vector of field/value maps, one for each record
+		 * @return The result of the operation.
+		 */
+		Status readChildren(String table, String foreignKey, String parentKey, int limit,
+				Vector<HashMap<String, ByteIterator>> result);
+	}
+
+	/**
+	 * Key encoded in UTF-8 into a buffer owned by a client thread. The buffer is
+	 * overwritten by the next key of the thread, so the bytes must be used (or
+	 * copied) before the DB operation returns.
+	 */
+	public static final class EncodedKey {
+
+		private final byte[] bytes;
+		private int length;
+		private String string;
+
+		EncodedKey(int capacity) {
+			this.bytes = new byte[capacity];
+		}
+
+		/**
+		 * @return the buffer holding the key, starting at offset 0.
+		 */
+		public byte[] bytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return the length of the key in the buffer.
+		 */
+		public int length() {
+			return length;
+		}
+	}
+
+	/**
+	 * Encoder of the numeric ids of the records into keys, written directly into a
+	 * byte buffer after the key prefix. The `keyformat` property selects the
+	 * format:
+	 * 
+	 * plain: the id in decimal, e.g. user45_123 (default)
+	 * fixed: the id in decimal padded with zeros to `keywidth` digits, so that
+	 * keys sort in the same order as the ids
+	 * hashed: the id scrambled by a bijective 64-bit mix and written as 16
+	 * hexadecimal digits, so that consecutive ids are spread over the whole key
+	 * space (and over the partitions or regions of the database) without
+	 * collisions
+	 */
+	static final class KeyCodec {
+
+		private static final byte[] DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+		// Maximum number of decimal digits of a non-negative long.
+		private static final int MAX_DECIMAL_DIGITS = 19;
+
+		enum Format {
+			PLAIN, FIXED, HASHED
+		}
+
+		private final Format format;
+		private final int width;
+
+		/**
+		 * Creates the codec.
+		 * 
+		 * @param format the key format: plain, fixed or hashed
+		 * @param width  the number of digits of the fixed format
+		 * @throws WorkloadException if the format is unknown
+		 */
+		KeyCodec(String format, int width) throws WorkloadException {
+			try {
+				this.format = Format.valueOf(format.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new WorkloadException("keyformat " + format + " is not supported");
+			}
+			this.width = Math.min(width, MAX_DECIMAL_DIGITS);
+		}
+
+		/**
+		 * @return the maximum number of bytes written after the prefix.
+		 */
+		int maxIdLength() {
+			return MAX_DECIMAL_DIGITS;
+		}
+
+		/**
+		 * Writes the prefix followed by the encoded id.
+		 * 
+		 * @param prefix the prefix, encoded in UTF-8
+		 * @param id     the non-negative id of the record
+		 * @param dst    the buffer receiving the key
+		 * @return the length of the key.
+		 */
+		int encode(byte[] prefix, long id, byte[] dst) {
+			System.arraycopy(prefix, 0, dst, 0, prefix.length);
+			int end;
+			switch (format) {
+			case FIXED:
+				end = prefix.length + Math.max(width, decimalLength(id));
+				writeDecimal(id, dst, end, prefix.length);
+				return end;
+			case HASHED:
+				long hash = mix(id);
+				end = prefix.length + 16;
+				for (int i = end - 1; i >= prefix.length; i--) {
+					dst[i] = DIGITS[(int) (hash & 0xF)];
+					hash >>>= 4;
+				}
+				return end;
+			default:
+				end = prefix.length + decimalLength(id);
+				writeDecimal(id, dst, end, end);
+				return end;
+			}
+		}
+
+		/**
+		 * Writes the decimal digits of `value` backwards from `end`, padding with
+		 * zeros down to `start`.
+		 */
+		private static void writeDecimal(long value, byte[] dst, int end, int start) {
+			int i = end;
+			do {
+				dst[--i] = DIGITS[(int) (value % 10)];
+				value /= 10;
+			} while (value != 0);
+			while (i > start) {
+				dst[--i] = '0';
+			}
+		}
+
+		private static int decimalLength(long value) {
+			int length = 1;
+			while (value >= 10) {
+				value /= 10;
+				length++;
+			}
+			return length;
+		}
+
+		/**
+		 * Bijective mix of the bits of a long (the finalizer of SplitMix64), so
+		 * distinct ids always give distinct keys.
+		 */
+		private static long mix(long z) {
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+			return z ^ (z >>> 31);
+		}
+	}
+
+	/**
+	 * Description of a table of the schema. The schema is loaded from the
+	 * workload properties, so any number of tables can be modelled:
+	 * 
+	 * tables: the names of the tables (default users,comments,posts)
+	 * tableinsertpercentage: the share of recordcount loaded into each table
+	 * tableprobabilities: the probability of using each table during "run"
+	 * tableparents: the table referenced by each table, or nothing
+	 * tableforeignkeys: the field holding the key of the referenced record
+	 * 
+	 * All of them are comma-separated lists in the order of `tables`.
+	 */
+	static final class TableSchema {
+
+		// Name of the table.
+		final String name;
+		// Number of records loaded into the table.
+		final long recordCount;
+		// Probability of using the table during "run".
+		final double probability;
+		// Index of the table referenced by this one, or -1.
+		final int parentIndex;
+		// Field holding the key of the referenced record, or null.
+		final String foreignKey;
+
+		TableSchema(String name, long recordCount, double probability, int parentIndex, String foreignKey) {
+			this.name = name;
+			this.recordCount = recordCount;
+			this.probability = probability;
+			this.parentIndex = parentIndex;
+			this.foreignKey = foreignKey;
+		}
+
+		/**
+		 * Loads the schema from the workload properties. Without a `tables`
+		 * property, the default schema is the social network one: users, comments
+		 * referencing posts through post_id, and posts referencing users through
+		 * user_id.
+		 * 
+		 * @param p
+		 * @param totalRecordCount the number of records loaded into all the tables
+		 * @return the tables, in the order of the `tables` property.
+		 * @throws WorkloadException if the properties are not consistent
+		 */
+		static TableSchema[] load(Properties p, long totalRecordCount) throws WorkloadException {
+			boolean defaultSchema = p.getProperty("tables") == null;
+			String[] names = split(p.getProperty("tables", "users,comments,posts"));
+			int n = names.length;
+
+			double[] insertPercentages = parseShares(p, "tableinsertpercentage", defaultSchema ? "0.3,0.4,0.3" : null, n);
+			double[] probabilities = parseShares(p, "tableprobabilities", defaultSchema ? "0.3,0.4,0.3" : null, n);
+			String[] parents = split(p.getProperty("tableparents", defaultSchema ? ",posts,users" : ""));
+			String[] foreignKeys = split(p.getProperty("tableforeignkeys", defaultSchema ? ",post_id,user_id" : ""));
+
+			Map<String, Integer> indexes = new HashMap<>();
+			for (int i = 0; i < n; i++) {
+				indexes.put(names[i], i);
+			}
+
+			TableSchema[] tables = new TableSchema[n];
+			long assignedRecords = 0;
+			for (int i = 0; i < n; i++) {
+				// The last table receives the records left by the rounding of the others.
+				long recordCount = i < n - 1 ? (long) (totalRecordCount * insertPercentages[i])
+						: totalRecordCount - assignedRecords;
+				assignedRecords += recordCount;
+
+				int parentIndex = -1;
+				String foreignKey = null;
+				String parent = i < parents.length ? parents[i] : "";
+				if (!parent.isEmpty()) {
+					if (!indexes.containsKey(parent)) {
+						throw new WorkloadException("Table " + names[i] + " references unknown table " + parent);
+					}
+					if (i >= foreignKeys.length || foreignKeys[i].isEmpty()) {
+						throw new WorkloadException("Table " + names[i] + " has no foreign key for " + parent);
+					}
+					parentIndex = indexes.get(parent);
+					foreignKey = foreignKeys[i];
+				}
+				tables[i] = new TableSchema(names[i], recordCount, probabilities[i], parentIndex, foreignKey);
+			}
+			return tables;
+		}
+
+		/**
+		 * Parses a comma-separated list of one share per table. Without the
+		 * property and without a default value, the tables get equal shares.
+		 */
+		private static double[] parseShares(Properties p, String property, String defaultValue, int n)
+				throws WorkloadException {
+			String value = p.getProperty(property, defaultValue);
+			double[] shares = new double[n];
+			if (value == null) {
+				Arrays.fill(shares, 1.0 / n);
+				return shares;
+			}
+			String[] values = split(value);
+			if (values.length != n) {
+				throw new WorkloadException(property + " must have one value for each of the " + n + " tables");
+			}
+			for (int i = 0; i < n; i++) {
+				shares[i] = Double.parseDouble(values[i]);
+			}
+			return shares;
+		}
+
+		private static String[] split(String list) {
+			String[] values = list.split(",", -1);
+			for (int i = 0; i < values.length; i++) {
+				values[i] = values[i].trim();
+			}
+			return values;
+		}
+
+		@Override
+		public String toString() {
+			return "table=" + name + ";records=" + recordCount + ";probability=" + probability
+					+ (parentIndex >= 0 ? ";foreign key=" + foreignKey : "");
+		}
+	}
+
+	/**
+	 * Source of the zeta constants of the Zipfian distributions, i.e. the sum of
+	 * 1 / i^theta for i from 1 to n. Computing it exactly takes O(n) time, which
+	 * means minutes for hundreds of millions of records, so for large n the sum is
+	 * computed exactly only up to EXACT_LIMIT and the rest is approximated with the
+	 * Euler-Maclaurin formula, whose error is far below the precision of a double.
+	 * 
+	 * When exact values are requested, they can be kept in a small properties file
+	 * (keyed by n and theta), so only the first run pays for them.
+	 */
+	static final class ZetaCache {
+
+		// Number of terms that are always summed exactly.
+		private static final long EXACT_LIMIT = 1_000_000;
+
+		private final boolean exact;
+		private final File file;
+		private final Properties values = new Properties();
+
+		/**
+		 * Creates the cache, loading the values already stored in the file.
+		 * 
+		 * @param exact    whether to compute every zeta constant exactly
+		 * @param fileName the file storing the exact values, or null
+		 */
+		ZetaCache(boolean exact, String fileName) {
+			this.exact = exact;
+			this.file = fileName == null || fileName.isEmpty() ? null : new File(fileName);
+			if (file != null && file.exists()) {
+				try (InputStream in = new FileInputStream(file)) {
+					values.load(in);
+				} catch (IOException e) {
+					System.out.println("cannot read zeta cache " + file + ": " + e.getMessage());
+				}
+			}
+		}
+
+		/**
+		 * Returns the zeta constant for n items.
+		 * 
+		 * @param n
+		 * @param theta
+		 * @return the zeta constant.
+		 */
+		double zeta(long n, double theta) {
+			if (!exact) {
+				return n <= EXACT_LIMIT ? exactZeta(n, theta) : approximateZeta(n, theta);
+			}
+
+			String key = n + "," + theta;
+			String cached = values.getProperty(key);
+			if (cached != null) {
+				return Double.parseDouble(cached);
+			}
+
+			long start = System.currentTimeMillis();
+			double zeta = exactZeta(n, theta);
+			System.out.println("zeta(" + n + ") computed in " + (System.currentTimeMillis() - start) + " ms");
+
+			if (file != null) {
+				values.setProperty(key, Double.toString(zeta));
+				try (OutputStream out = new FileOutputStream(file)) {
+					values.store(out, "zeta constants of MultiTableWorkload, keyed by item count and theta");
+				} catch (IOException e) {
+					System.out.println("cannot write zeta cache " + file + ": " + e.getMessage());
+				}
+			}
+			return zeta;
+		}
+
+		static double exactZeta(long n, double theta) {
+			double sum = 0;
+			for (long i = 0; i < n; i++) {
+				sum += 1 / Math.pow(i + 1, theta);
+			}
+			return sum;
+		}
+
+		/**
+		 * Sums the first EXACT_LIMIT - 1 terms exactly and approximates the sum of
+		 * f(i) = i^-theta for i from m = EXACT_LIMIT to n with
+		 * integral(f, m, n) + (f(m) + f(n)) / 2 + (f'(n) - f'(m)) / 12.
+		 */
+		static double approximateZeta(long n, double theta) {
+			long m = EXACT_LIMIT;
+			double integral = theta == 1 ? Math.log((double) n / m)
+					: (Math.pow(n, 1 - theta) - Math.pow(m, 1 - theta)) / (1 - theta);
+			double ends = (Math.pow(m, -theta) + Math.pow(n, -theta)) / 2;
+			double derivatives = theta * (Math.pow(m, -theta - 1) - Math.pow(n, -theta - 1)) / 12;
+			return exactZeta(m - 1, theta) + integral + ends + derivatives;
+		}
+	}
+
+	/**
+	 * Generator spreading the values of another generator over [0, itemCount) by
+	 * hashing them, like YCSB's ScrambledZipfianGenerator: the popular values of a
+	 * Zipfian distribution become random keys instead of the first ones, so they
+	 * are spread across the partitions or regions of the database.
+	 */
+	static final class ScrambledGenerator extends NumberGenerator {
+
+		private final NumberGenerator generator;
+		private final long itemCount;
+
+		ScrambledGenerator(NumberGenerator generator, long itemCount) {
+			this.generator = generator;
+			this.itemCount = itemCount;
+		}
+
+		@Override
+		public Long nextValue() {
+			long value = Math.floorMod(Utils.fnvhash64(generator.nextValue().longValue()), itemCount);
+			setLastValue(value);
+			return value;
+		}
+
+		@Override
+		public double mean() {
+			return (itemCount - 1) / 2.0;
+		}
+	}
+
+	/**
+	 * Generator returning itemCount - 1 - v for each value v of another
+	 * generator, so that the most popular values are the last items instead of
+	 * the first ones.
+	 */
+	static final class ReversedGenerator extends NumberGenerator {
+
+		private final NumberGenerator generator;
+		private final long itemCount;
+
+		ReversedGenerator(NumberGenerator generator, long itemCount) {
+			this.generator = generator;
+			this.itemCount = itemCount;
+		}
+
+		@Override
+		public Long nextValue() {
+			long value = itemCount - 1 - generator.nextValue().longValue();
+			setLastValue(value);
+			return value;
+		}
+
+		@Override
+		public double mean() {
+			return itemCount - 1 - generator.mean();
+		}
+	}
+
+	/**
+	 * Ring buffer of the ids of the last acknowledged inserts of a table, shared
+	 * by all the threads without locking: adding an id takes one atomic increment
+	 * and one ordered write, reading takes two volatile reads. A reader racing
+	 * with a writer may see the previous id of a slot, which is still a recent
+	 * insert.
+	 */
+	static final class RecentInserts {
+
+		private final AtomicLongArray ids;
+		private final int mask;
+		// Number of ids added so far.
+		private final AtomicLong count = new AtomicLong();
+
+		/**
+		 * Creates the ring buffer.
+		 * 
+		 * @param window the number of recent ids to keep, rounded up to a power of 2
+		 */
+		RecentInserts(int window) {
+			int capacity = Integer.highestOneBit(Math.max(1, window - 1)) << 1;
+			ids = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				ids.set(i, -1);
+			}
+			mask = capacity - 1;
+		}
+
+		int capacity() {
+			return mask + 1;
+		}
+
+		void add(long id) {
+			long slot = count.getAndIncrement();
+			ids.lazySet((int) (slot & mask), id);
+		}
+
+		/**
+		 * Returns a recent id.
+		 * 
+		 * @param rank 0 for the last id added, 1 for the one before, and so on
+		 * @return the id, or -1 if there is no id with this rank in the buffer.
+		 */
+		long get(long rank) {
+			long added = count.get();
+			if (rank >= added || rank > mask) {
+				return -1;
+			}
+			return ids.get((int) ((added - 1 - rank) & mask));
+		}
+	}
+
+	/**
+	 * Sampler of a discrete distribution using Vose's alias method: building it
+	 * takes linear time, while drawing a value takes constant time, i.e. one
+	 * random index and one random comparison. It is immutable once built, so it
+	 * can be shared by all the threads.
+	 */
+	static final class AliasTable {
+
+		private final double[] probability;
+		private final int[] alias;
+
+		/**
+		 * Builds the table.
+		 * 
+		 * @param weights the non-negative weights of the values, not all zero
+		 */
+		AliasTable(double[] weights) {
+			int n = weights.length;
+			probability = new double[n];
+			alias = new int[n];
+
+			double sum = 0;
+			for (double weight : weights) {
+				sum += weight;
+			}
+
+			// Scale the weights so that their average is 1 and split them into the
+			// values below and above the average.
+			double[] scaled = new double[n];
+			int[] small = new int[n];
+			int[] large = new int[n];
+			int smallCount = 0;
+			int largeCount = 0;
+			for (int i = 0; i < n; i++) {
+				scaled[i] = weights[i] * n / sum;
+				if (scaled[i] < 1) {
+					small[smallCount++] = i;
+				} else {
+					large[largeCount++] = i;
+				}
+			}
+
+			// Fill each column of a small value with one of the large values.
+			while (smallCount > 0 && largeCount > 0) {
+				int less = small[--smallCount];
+				int more = large[--largeCount];
+				probability[less] = scaled[less];
+				alias[less] = more;
+				scaled[more] = scaled[more] + scaled[less] - 1;
+				if (scaled[more] < 1) {
+					small[smallCount++] = more;
+				} else {
+					large[largeCount++] = more;
+				}
+			}
+
+			// What is left is 1, up to rounding errors.
+			while (largeCount > 0) {
+				probability[large[--largeCount]] = 1;
+			}
+			while (smallCount > 0) {
+				probability[small[--smallCount]] = 1;
+			}
+		}
+
+		/**
+		 * Draws a value.
+		 * 
+		 * @param random the random generator of the calling thread
+		 * @return the index of the value drawn.
+		 */
+		int next(ThreadLocalRandom random) {
+			int column = random.nextInt(probability.length);
+			return random.nextDouble() < probability[column] ? column : alias[column];
+		}
+	}
+
+	/**
+	 * Fixed-size set of bits that can be set and tested by many threads without
+	 * locking. Each bit costs one bit of memory, and setting it is a single CAS on
+	 * the word that contains it.
+	 */
+	static final class ConcurrentBitSet {
+
+		private final AtomicLongArray words;
+		private final long size;
+
+		/**
+		 * Creates a set of `size` bits, all clear.
+		 * 
+		 * @param size the number of bits
+		 */
+		ConcurrentBitSet(long size) {
+			this.size = size;
+			this.words = new AtomicLongArray((int) ((size + 63) >>> 6));
+		}
+
+		/**
+		 * Tests a bit.
+		 * 
+		 * @param index
+		 * @return true if the bit is set.
+		 */
+		boolean get(long index) {
+			return (words.get((int) (index >>> 6)) & (1L << index)) != 0;
+		}
+
+		/**
+		 * Sets a bit.
+		 * 
+		 * @param index
+		 * @return true if this call set the bit, false if it was already set.
+		 */
+		boolean set(long index) {
+			int wordIndex = (int) (index >>> 6);
+			long mask = 1L << index;
+			long word;
+			do {
+				word = words.get(wordIndex);
+				if ((word & mask) != 0) {
+					return false;
+				}
+			} while (!words.compareAndSet(wordIndex, word, word | mask));
+			return true;
+		}
+
+		/**
+		 * Finds the first clear bit at or after the given index, wrapping around
+		 * to the start of the set.
+		 * 
+		 * @param from
+		 * @return the index of the clear bit, or -1 if every bit is set.
+		 */
+		long nextClearBit(long from) {
+			int wordCount = words.length();
+			if (wordCount == 0) {
+				return -1;
+			}
+			int wordIndex = (int) (from >>> 6);
+			// Bits before `from` in its word are only considered after wrapping around.
+			long word = ~words.get(wordIndex) & (-1L << from);
+			for (int scanned = 0; scanned <= wordCount; scanned++) {
+				if (word != 0) {
+					long index = ((long) wordIndex << 6) + Long.numberOfTrailingZeros(word);
+					if (index < size) {
+						return index;
+					}
+				}
+				wordIndex = wordIndex + 1 == wordCount ? 0 : wordIndex + 1;
+				word = ~words.get(wordIndex);
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Pool of random alphanumeric characters, filled once in init() and only read
+	 * afterwards, so any number of threads can share it without locking. A field
+	 * value is a slice of the pool starting at a random offset.
+	 */
+	static final class PayloadPool {
+
+		// Define the character set for the random values.
+		private static final byte[] ALPHANUMERIC = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ" + "0123456789"
+				+ "abcdefghijklmnopqrstuvxyz").getBytes(StandardCharsets.US_ASCII);
+
+		private final byte[] pool;
+
+		/**
+		 * Creates the pool and fills it with random characters.
+		 * 
+		 * @param size   the number of bytes in the pool
+		 * @param random the source of randomness used to fill the pool
+		 */
+		PayloadPool(int size, Random random) {
+			pool = new byte[size];
+			for (int i = 0; i < size; i++) {
+				pool[i] = ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)];
+			}
+		}
+
+		/**
+		 * Points the given iterator to a random slice of the pool.
+		 * 
+		 * @param iterator the iterator to reposition
+		 * @param length   the length of the slice
+		 * @param random   the random generator of the calling thread
+		 * @return the same iterator, for chaining.
+		 */
+		SliceByteIterator slice(SliceByteIterator iterator, int length, ThreadLocalRandom random) {
+			int offset = random.nextInt(pool.length - length + 1);
+			return iterator.set(pool, offset, length);
+		}
+	}
+
+	/**
+	 * ByteIterator over a slice of a byte array. Unlike ByteArrayByteIterator it
+	 * can be repositioned, so a thread can reuse the same instances for every
+	 * operation, and toString() decodes the slice directly without building an
+	 * intermediate array.
+	 */
+	static final class SliceByteIterator extends ByteIterator {
+
+		private byte[] buf;
+		private int start;
+		private int end;
+		private int position;
+
+		/**
+		 * Points this iterator to a new slice.
+		 * 
+		 * @param buf    the backing array
+		 * @param offset the first byte of the slice
+		 * @param length the length of the slice
+		 * @return this iterator.
+		 */
+		SliceByteIterator set(byte[] buf, int offset, int length) {
+			this.buf = buf;
+			this.start = offset;
+			this.end = offset + length;
+			this.position = offset;
+			return this;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < end;
+		}
+
+		@Override
+		public byte nextByte() {
+			return buf[position++];
+		}
+
+		@Override
+		public int nextBuf(byte[] dst, int dstOffset) {
+			int n = Math.min(end - position, dst.length - dstOffset);
+			System.arraycopy(buf, position, dst, dstOffset, n);
+			position += n;
+			return dstOffset + n;
+		}
+
+		@Override
+		public long bytesLeft() {
+			return end - position;
+		}
+
+		@Override
+		public void reset() {
+			position = start;
+		}
+
+		@Override
+		public byte[] toArray() {
+			byte[] ret = Arrays.copyOfRange(buf, position, end);
+			position = end;
+			return ret;
+		}
+
+		@Override
+		public String toString() {
+			String ret = new String(buf, position, end - position, StandardCharsets.US_ASCII);
+			position = end;
+			return ret;
+		}
+	}
+
 }
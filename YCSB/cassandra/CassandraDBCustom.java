@@ -1,18 +1,37 @@
 package site.ycsb.db;
 
 import com.datastax.driver.core.*;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.LatencyAwarePolicy;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.PercentileSpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.SpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.core.querybuilder.Select;
 import site.ycsb.ByteIterator;
 import site.ycsb.DB;
 import site.ycsb.DBException;
+import site.ycsb.MultiTableWorkload;
+import site.ycsb.MultiTableWorkload.DurabilityProfile;
 import site.ycsb.Status;
 import site.ycsb.StringByteIterator;
+import site.ycsb.measurements.Measurements;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.BoundStatement;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -24,9 +43,29 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Properties;
 
-public class CassandraDBCustom extends DB {
+public class CassandraDBCustom extends DB implements MultiTableWorkload.ChildReader {
 	private CassandraClient client;
 
+	// The Cluster, its Session and the prepared statements are shared by all the
+	// client threads: the first call to init() creates them and the last call to
+	// cleanup() closes them.
+	private static final Object CLUSTER_LOCK = new Object();
+	private static int clusterReferences = 0;
+	private static Cluster sharedCluster;
+	private static Session sharedSession;
+	private static PreparedStatement[] sharedStatements;
+
+	// Consistency levels of the durability profile, null to keep the default
+	private static ConsistencyLevel readConsistency;
+	private static ConsistencyLevel writeConsistency;
+	private static final Map<String, PreparedStatement> CHILD_STATEMENTS = new ConcurrentHashMap<>();
+
+	// Column names of the SELECT statements, indexed by the ordinal of the
+	// statement and filled by the first response. The AtomicReferenceArray
+	// publishes each array to the other threads only once it is filled.
+	private static final AtomicReferenceArray<String[]> COLUMN_NAMES = new AtomicReferenceArray<>(
+			CassandraStatement.values().length);
+
 	// Constructor which instantiates the CassandraClient
 	public CassandraDBCustom() {
 		this.client = new CassandraClient();
@@ -39,7 +78,8 @@ public class CassandraDBCustom extends DB {
 	 */
 	@Override
 	public void init() throws DBException {
-		client.connect();
+		client.connect(getProperties());
+		MultiTableWorkload.registerBinding(this, client.async);
 	}
 
 	/**
@@ -55,8 +95,7 @@ public class CassandraDBCustom extends DB {
 	@Override
 	public Status read(String table, String key, Set<String> fields, Map<String, ByteIterator> result) {
 		try {
-			Map<String, String> record = client.read(table, key);
-			result.putAll(StringByteIterator.getByteIteratorMap(record));
+			client.read(table, key, result);
 			return Status.OK;
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -75,8 +114,7 @@ public class CassandraDBCustom extends DB {
 	@Override
 	public Status insert(String table, String key, Map<String, ByteIterator> values) {
 		try {
-			client.insert(table, key, StringByteIterator.getStringMap(values));
-			return Status.OK;
+			return client.insert(table, key, StringByteIterator.getStringMap(values)) ? Status.BATCHED_OK : Status.OK;
 		} catch (Exception e) {
 			e.printStackTrace();
 			return Status.ERROR;
@@ -120,6 +158,29 @@ public class CassandraDBCustom extends DB {
 		}
 	}
 
+	/**
+	 * This method reads the records of a table that reference a given parent
+	 * record, e.g. the comments of a post.
+	 * 
+	 * @param table      The name of the table
+	 * @param foreignKey The field holding the key of the parent record
+	 * @param parentKey  The primary key of the parent record
+	 * @param limit      The maximum number of records to read
+	 * @param result     A Vector of field/value maps, one for each record
+	 * @return The result of the operation.
+	 */
+	@Override
+	public Status readChildren(String table, String foreignKey, String parentKey, int limit,
+			Vector<HashMap<String, ByteIterator>> result) {
+		try {
+			client.readChildren(table, foreignKey, parentKey, limit, result);
+			return Status.OK;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return Status.ERROR;
+		}
+	}
+
 	@Override
 	public Status scan(String table, String startkey, int recordcount, Set<String> fields,
 			Vector<HashMap<String, ByteIterator>> result) {
@@ -134,6 +195,284 @@ public class CassandraDBCustom extends DB {
 		client.close();
 	}
 
+	/**
+	 * The statements used by the client, prepared once at init and indexed by
+	 * their ordinal.
+	 */
+	enum CassandraStatement {
+		INSERT_USERS("INSERT INTO users (user_id, username, email, created_at) VALUES (?,?,?,?)"),
+		INSERT_POSTS("INSERT INTO posts (post_id, user_id, content, platform, posted_time) VALUES (?,?,?,?,?)"),
+		INSERT_COMMENTS("INSERT INTO comments (comment_id, post_id, content, commented_time) VALUES (?,?,?,?)"),
+		SELECT_USERS("SELECT * FROM users WHERE user_id = ?"),
+		SELECT_POSTS("SELECT * FROM posts WHERE post_id = ?"),
+		SELECT_COMMENTS("SELECT * FROM comments WHERE comment_id = ?"),
+		UPDATE_USERS("UPDATE users SET username = ?, email = ? WHERE user_id = ?"),
+		UPDATE_POSTS("UPDATE posts SET content = ?, platform = ? WHERE post_id = ?"),
+		UPDATE_COMMENTS("UPDATE comments SET content = ? WHERE comment_id = ?"),
+		DELETE_USERS("DELETE FROM users WHERE user_id = ?"),
+		DELETE_POSTS("DELETE FROM posts WHERE post_id = ?"),
+		DELETE_COMMENTS("DELETE FROM comments WHERE comment_id = ?");
+
+		private final String cql;
+
+		CassandraStatement(String cql) {
+			this.cql = cql;
+		}
+	}
+
+	/**
+	 * Builds the Cluster from the properties:
+	 * <ul>
+	 * <li>cassandra.hosts: comma separated contact points (default 127.0.0.1)</li>
+	 * <li>cassandra.port: native protocol port (default 9042)</li>
+	 * <li>cassandra.coreconnections, cassandra.maxconnections: connections to each
+	 * local host</li>
+	 * <li>cassandra.maxrequestsperconnection: requests in flight on a
+	 * connection</li>
+	 * <li>cassandra.compression: none, snappy or lz4 (the library must be on the
+	 * classpath)</li>
+	 * <li>cassandra.connecttimeoutmillis, cassandra.readtimeoutmillis,
+	 * cassandra.tcpnodelay: socket options</li>
+	 * <li>cassandra.tokenaware (default true), cassandra.latencyaware (default
+	 * false): load balancing wrapped around DCAwareRoundRobinPolicy</li>
+	 * <li>cassandra.speculativedelayms or cassandra.speculativepercentile, and
+	 * cassandra.speculativemaxexecutions: speculative execution of the reads</li>
+	 * </ul>
+	 * The options that are not set keep the driver defaults.
+	 * 
+	 * @param p The properties of the benchmark.
+	 * @return The Cluster, not connected yet.
+	 */
+	private static Cluster buildCluster(Properties p) {
+		Cluster.Builder builder = Cluster.builder()
+				.addContactPoints(p.getProperty("cassandra.hosts", "127.0.0.1").split(","))
+				.withPort(Integer.parseInt(p.getProperty("cassandra.port", "9042")));
+
+		PoolingOptions pooling = new PoolingOptions();
+		String coreConnections = p.getProperty("cassandra.coreconnections");
+		String maxConnections = p.getProperty("cassandra.maxconnections");
+		if (coreConnections != null || maxConnections != null) {
+			int core = Integer.parseInt(coreConnections != null ? coreConnections : "1");
+			int max = maxConnections != null ? Integer.parseInt(maxConnections) : core;
+			pooling.setConnectionsPerHost(HostDistance.LOCAL, core, max);
+		}
+		String maxRequests = p.getProperty("cassandra.maxrequestsperconnection");
+		if (maxRequests != null) {
+			pooling.setMaxRequestsPerConnection(HostDistance.LOCAL, Integer.parseInt(maxRequests));
+		}
+		builder.withPoolingOptions(pooling);
+
+		String compression = p.getProperty("cassandra.compression", "none");
+		builder.withCompression(ProtocolOptions.Compression.valueOf(compression.toUpperCase()));
+
+		SocketOptions socket = new SocketOptions();
+		socket.setTcpNoDelay(Boolean.parseBoolean(p.getProperty("cassandra.tcpnodelay", "true")));
+		String connectTimeout = p.getProperty("cassandra.connecttimeoutmillis");
+		if (connectTimeout != null) {
+			socket.setConnectTimeoutMillis(Integer.parseInt(connectTimeout));
+		}
+		String readTimeout = p.getProperty("cassandra.readtimeoutmillis");
+		if (readTimeout != null) {
+			socket.setReadTimeoutMillis(Integer.parseInt(readTimeout));
+		}
+		builder.withSocketOptions(socket);
+
+		LoadBalancingPolicy loadBalancing = DCAwareRoundRobinPolicy.builder().build();
+		if (Boolean.parseBoolean(p.getProperty("cassandra.latencyaware", "false"))) {
+			loadBalancing = LatencyAwarePolicy.builder(loadBalancing).build();
+		}
+		if (Boolean.parseBoolean(p.getProperty("cassandra.tokenaware", "true"))) {
+			loadBalancing = new TokenAwarePolicy(loadBalancing);
+		}
+		builder.withLoadBalancingPolicy(loadBalancing);
+
+		int maxExecutions = Integer.parseInt(p.getProperty("cassandra.speculativemaxexecutions", "2"));
+		String percentile = p.getProperty("cassandra.speculativepercentile");
+		long delay = Long.parseLong(p.getProperty("cassandra.speculativedelayms", "0"));
+		PerHostPercentileTracker tracker = null;
+		if (percentile != null) {
+			tracker = PerHostPercentileTracker.builderWithHighestTrackableLatencyMillis(15000).build();
+			builder.withSpeculativeExecutionPolicy(new ReadSpeculativeExecutionPolicy(
+					new PercentileSpeculativeExecutionPolicy(tracker, Double.parseDouble(percentile), maxExecutions)));
+		} else if (delay > 0) {
+			builder.withSpeculativeExecutionPolicy(
+					new ReadSpeculativeExecutionPolicy(new ConstantSpeculativeExecutionPolicy(delay, maxExecutions)));
+		}
+
+		System.out.println("cassandra hosts:" + p.getProperty("cassandra.hosts", "127.0.0.1") + ";compression:"
+				+ compression + ";load balancing:" + loadBalancing.getClass().getSimpleName() + ";speculative execution:"
+				+ (percentile != null ? "p" + percentile : delay > 0 ? delay + "ms" : "none"));
+		Cluster cluster = builder.build();
+		if (tracker != null) {
+			cluster.register(tracker);
+		}
+		return cluster;
+	}
+
+	/**
+	 * Prints the counters of the driver policies: the speculative executions
+	 * started and the requests retried (by cause), to compare the tail latencies
+	 * obtained with the different options.
+	 * 
+	 * @param cluster The Cluster, still open.
+	 */
+	private static void printPolicyCounters(Cluster cluster) {
+		Metrics.Errors errors = cluster.getMetrics().getErrorMetrics();
+		System.out.println("cassandra speculative executions=" + errors.getSpeculativeExecutions().getCount()
+				+ ";retries=" + errors.getRetries().getCount() + ";retries on read timeout="
+				+ errors.getRetriesOnReadTimeout().getCount() + ";retries on write timeout="
+				+ errors.getRetriesOnWriteTimeout().getCount() + ";retries on unavailable="
+				+ errors.getRetriesOnUnavailable().getCount() + ";retries on client timeout="
+				+ errors.getRetriesOnClientTimeout().getCount());
+	}
+
+	/**
+	 * Returns the size of the values bound to a statement, as serialized in the
+	 * request with their 4-byte length.
+	 * 
+	 * @param statement The statement.
+	 * @return The size in bytes.
+	 */
+	private static int valueBytes(BoundStatement statement) {
+		int bytes = 0;
+		int count = statement.preparedStatement().getVariables().size();
+		for (int i = 0; i < count; i++) {
+			ByteBuffer value = statement.getBytesUnsafe(i);
+			bytes += 4 + (value == null ? 0 : value.remaining());
+		}
+		return bytes;
+	}
+
+	/**
+	 * UNLOGGED batch being filled for a table and a set of replicas, with the size
+	 * of its values and the partitions it spans.
+	 */
+	private static final class PendingBatch {
+		private final BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+		private final Set<ByteBuffer> partitions = new HashSet<>();
+		private int bytes;
+
+		PendingBatch() {
+			if (writeConsistency != null) {
+				batch.setConsistencyLevel(writeConsistency);
+			}
+		}
+
+		void add(BoundStatement statement, ByteBuffer routingKey, int statementBytes) {
+			batch.add(statement);
+			partitions.add(routingKey);
+			bytes += statementBytes;
+		}
+	}
+
+	/**
+	 * Returns the names of the columns of a result, by index.
+	 * 
+	 * @param definitions The columns of the result.
+	 * @return The names of the columns.
+	 */
+	private static String[] columnNames(ColumnDefinitions definitions) {
+		String[] names = new String[definitions.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = definitions.getName(i);
+		}
+		return names;
+	}
+
+	/**
+	 * ByteIterator over a value of a response, read in place. The text columns
+	 * are only decoded from UTF-8 if toString() is called.
+	 */
+	static final class ByteBufferByteIterator extends ByteIterator {
+		private final ByteBuffer buffer;
+		private final int start;
+
+		ByteBufferByteIterator(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.start = buffer.position();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return buffer.hasRemaining();
+		}
+
+		@Override
+		public byte nextByte() {
+			return buffer.get();
+		}
+
+		@Override
+		public int nextBuf(byte[] dst, int dstOffset) {
+			int n = Math.min(buffer.remaining(), dst.length - dstOffset);
+			buffer.get(dst, dstOffset, n);
+			return dstOffset + n;
+		}
+
+		@Override
+		public long bytesLeft() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public void reset() {
+			buffer.position(start);
+		}
+
+		@Override
+		public byte[] toArray() {
+			byte[] ret = new byte[buffer.remaining()];
+			buffer.get(ret);
+			return ret;
+		}
+
+		@Override
+		public String toString() {
+			String ret;
+			if (buffer.hasArray()) {
+				ret = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+						StandardCharsets.UTF_8);
+				buffer.position(buffer.limit());
+			} else {
+				ret = new String(toArray(), StandardCharsets.UTF_8);
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Speculative execution policy that only speculates on reads: the writes are
+	 * idempotent too, but sending them twice would double the write load.
+	 */
+	static class ReadSpeculativeExecutionPolicy implements SpeculativeExecutionPolicy {
+		private static final SpeculativeExecutionPlan NO_SPECULATION = host -> -1;
+
+		private final SpeculativeExecutionPolicy delegate;
+
+		ReadSpeculativeExecutionPolicy(SpeculativeExecutionPolicy delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void init(Cluster cluster) {
+			delegate.init(cluster);
+		}
+
+		@Override
+		public SpeculativeExecutionPlan newPlan(String loggedKeyspace, Statement statement) {
+			if (statement instanceof BoundStatement
+					&& ((BoundStatement) statement).preparedStatement().getQueryString().startsWith("SELECT")) {
+				return delegate.newPlan(loggedKeyspace, statement);
+			}
+			return NO_SPECULATION;
+		}
+
+		@Override
+		public void close() {
+			delegate.close();
+		}
+	}
+
 	/*
 	 * Internal class to handle connection with the Cassandra database
 	 */
@@ -142,19 +481,251 @@ public class CassandraDBCustom extends DB {
 		private Cluster cluster;
 		private Session session;
 		private Properties keyTableMapping;
-		private Map<String, PreparedStatement> insertStatements;
-		private Map<String, PreparedStatement> updateStatements;
-		private Map<String, PreparedStatement> deleteStatements;
+		private PreparedStatement[] statements;
+
+		// In async mode (cassandra.async=true) the requests are sent with
+		// executeAsync and the calling thread only blocks when
+		// cassandra.maxinflight requests are already waiting for a response.
+		private boolean async;
+		private Semaphore inFlight;
+		private int maxInFlight;
+
+		// While loading with cassandra.batchsize > 0, the inserts are grouped by table
+		// and by the replicas owning their partition into UNLOGGED batches, sent
+		// asynchronously (within the same in-flight window) once they reach
+		// cassandra.batchsize rows, cassandra.batchmaxbytes of values or
+		// cassandra.batchmaxpartitions partitions, whichever comes first. The last
+		// two keep the batches below the coordinator's batch size and unlogged
+		// partitions warning thresholds.
+		private int batchSize;
+		private int batchMaxBytes;
+		private int batchMaxPartitions;
+		private final Map<String, Map<Set<Host>, PendingBatch>> batches = new HashMap<>();
+		// Inserts sent in batches, and those of the batches that failed: they were
+		// reported OK when added, so they are printed at close.
+		private final LongAdder batchedRows = new LongAdder();
+		private final LongAdder failedBatchRows = new LongAdder();
 
 		private File file;
 
 		/**
 		 * Method to connect to the Cassandra cluster
 		 * 
+		 * @param p The properties of the benchmark.
+		 */
+		public void connect(Properties p) {
+			async = Boolean.parseBoolean(p.getProperty("cassandra.async", "false"));
+			boolean loading = !Boolean.parseBoolean(p.getProperty("dotransactions", "true"));
+			batchSize = loading ? Integer.parseInt(p.getProperty("cassandra.batchsize", "0")) : 0;
+			batchMaxBytes = Integer.parseInt(p.getProperty("cassandra.batchmaxbytes", "4096"));
+			batchMaxPartitions = Integer.parseInt(p.getProperty("cassandra.batchmaxpartitions", "10"));
+			if (async || batchSize > 0) {
+				maxInFlight = Integer.parseInt(p.getProperty("cassandra.maxinflight", "64"));
+				inFlight = new Semaphore(maxInFlight);
+			}
+
+			synchronized (CLUSTER_LOCK) {
+				if (clusterReferences == 0) {
+					Cluster cluster = buildCluster(p);
+					try {
+						sharedSession = cluster.connect(p.getProperty("cassandra.keyspace", "social_media"));
+					} catch (RuntimeException e) {
+						cluster.close();
+						throw e;
+					}
+					sharedCluster = cluster;
+					setConsistencyLevels(DurabilityProfile.of(p));
+					sharedStatements = prepareStatements(sharedSession);
+				}
+				clusterReferences++;
+				this.cluster = sharedCluster;
+				this.session = sharedSession;
+				this.statements = sharedStatements;
+			}
+		}
+
+		/**
+		 * Method to prepare the statements of CassandraStatement. None of them uses
+		 * counters or collections, so they are all idempotent and the driver can
+		 * safely retry them. They get the consistency level of the durability
+		 * profile, if any.
+		 * 
+		 * @param session The session to prepare them on.
+		 * @return The prepared statements, indexed by ordinal.
 		 */
-		public void connect() {
-			this.cluster = Cluster.builder().addContactPoint("127.0.0.1").withPort(9042).build();
-			this.session = cluster.connect("social_media");
+		private PreparedStatement[] prepareStatements(Session session) {
+			PreparedStatement[] statements = new PreparedStatement[CassandraStatement.values().length];
+			for (CassandraStatement statement : CassandraStatement.values()) {
+				PreparedStatement prepared = session.prepare(statement.cql).setIdempotent(true);
+				ConsistencyLevel consistency = statement.cql.startsWith("SELECT") ? readConsistency : writeConsistency;
+				if (consistency != null) {
+					prepared.setConsistencyLevel(consistency);
+				}
+				statements[statement.ordinal()] = prepared;
+			}
+			return statements;
+		}
+
+		/**
+		 * Method to map the durability profile to consistency levels:
+		 * <ul>
+		 * <li>strict: QUORUM writes and reads, so reads see every acknowledged
+		 * write</li>
+		 * <li>balanced: QUORUM writes, ONE reads</li>
+		 * <li>fast: ONE writes and reads</li>
+		 * </ul>
+		 * How a write becomes durable on a replica depends on commitlog_sync in
+		 * cassandra.yaml, which the client cannot change.
+		 * 
+		 * @param profile The durability profile, or null to keep the default.
+		 */
+		private void setConsistencyLevels(DurabilityProfile profile) {
+			if (profile == null) {
+				readConsistency = null;
+				writeConsistency = null;
+				return;
+			}
+			switch (profile) {
+			case STRICT:
+				writeConsistency = ConsistencyLevel.QUORUM;
+				readConsistency = ConsistencyLevel.QUORUM;
+				break;
+			case BALANCED:
+				writeConsistency = ConsistencyLevel.QUORUM;
+				readConsistency = ConsistencyLevel.ONE;
+				break;
+			case FAST:
+				writeConsistency = ConsistencyLevel.ONE;
+				readConsistency = ConsistencyLevel.ONE;
+				break;
+			}
+			System.out.println("cassandra durability profile=" + profile.name().toLowerCase() + ";write consistency="
+					+ writeConsistency + ";read consistency=" + readConsistency);
+		}
+
+		/**
+		 * Method to bind the values of a prepared statement.
+		 * 
+		 * @param statement The statement to bind.
+		 * @param values    The values of its bind markers, in order.
+		 * @return The bound statement.
+		 */
+		private BoundStatement bind(CassandraStatement statement, Object... values) {
+			return statements[statement.ordinal()].bind(values);
+		}
+
+		/**
+		 * Method to execute a statement. In async mode the statement is sent without
+		 * waiting for the response and its latency, measured when it completes, is
+		 * recorded in the ASYNC-[operation] series; the series of the operation
+		 * itself then only measures the time to send it.
+		 * 
+		 * @param statement The statement to execute.
+		 * @param operation The name of the operation, e.g. READ.
+		 * @return The result of the statement, or null in async mode.
+		 */
+		private ResultSet execute(Statement statement, String operation) {
+			if (!async) {
+				return session.execute(statement);
+			}
+			submit(statement, operation);
+			return null;
+		}
+
+		/**
+		 * Method to send a statement asynchronously, blocking while the in-flight
+		 * window is full. Its latency is recorded in the ASYNC-[operation] series
+		 * when it completes.
+		 * 
+		 * @param statement The statement to send.
+		 * @param operation The name of the operation, e.g. READ.
+		 */
+		private void submit(Statement statement, String operation) {
+			// Back-pressure: wait for a slot of the in-flight window.
+			inFlight.acquireUninterruptibly();
+			final String measurementName = "ASYNC-" + operation;
+			final long intendedStartTime = Measurements.getMeasurements().getIntendedStartTimeNs();
+			final long startTime = System.nanoTime();
+			Futures.addCallback(session.executeAsync(statement), new FutureCallback<ResultSet>() {
+				@Override
+				public void onSuccess(ResultSet resultSet) {
+					complete(operation.equals("READ") && resultSet.one() == null ? Status.NOT_FOUND : Status.OK);
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					if (statement instanceof BatchStatement) {
+						failedBatchRows.add(((BatchStatement) statement).size());
+					}
+					complete(Status.ERROR);
+				}
+
+				private void complete(Status status) {
+					long endTime = System.nanoTime();
+					Measurements measurements = Measurements.getMeasurements();
+					String name = status.isOk() ? measurementName : measurementName + "-FAILED";
+					measurements.measure(name, (int) ((endTime - startTime) / 1000));
+					measurements.measureIntended(name, (int) ((endTime - intendedStartTime) / 1000));
+					measurements.reportStatus(measurementName, status);
+					inFlight.release();
+				}
+			});
+		}
+
+		/**
+		 * Method to add an insert to the batch of its table and replicas. The batch
+		 * is sent first if the insert would take it over cassandra.batchmaxbytes, and
+		 * once it reaches one of its limits after the insert.
+		 * 
+		 * @param table     The table of the insert.
+		 * @param statement The insert.
+		 */
+		private void addToBatch(String table, BoundStatement statement) {
+			Configuration configuration = cluster.getConfiguration();
+			ByteBuffer routingKey = statement.getRoutingKey(configuration.getProtocolOptions().getProtocolVersion(),
+					configuration.getCodecRegistry());
+			Set<Host> replicas = cluster.getMetadata().getReplicas(session.getLoggedKeyspace(), routingKey);
+			int statementBytes = valueBytes(statement);
+
+			Map<Set<Host>, PendingBatch> tableBatches = batches.computeIfAbsent(table, t -> new HashMap<>());
+			PendingBatch pending = tableBatches.get(replicas);
+			if (pending != null && pending.bytes + statementBytes > batchMaxBytes) {
+				tableBatches.remove(replicas);
+				sendBatch(pending);
+				pending = null;
+			}
+			if (pending == null) {
+				pending = new PendingBatch();
+				tableBatches.put(replicas, pending);
+			}
+			pending.add(statement, routingKey, statementBytes);
+			if (pending.batch.size() >= batchSize || pending.bytes >= batchMaxBytes
+					|| pending.partitions.size() >= batchMaxPartitions) {
+				tableBatches.remove(replicas);
+				sendBatch(pending);
+			}
+		}
+
+		/**
+		 * Method to send a batch asynchronously, measured in the ASYNC-BATCH series.
+		 * 
+		 * @param pending The batch to send.
+		 */
+		private void sendBatch(PendingBatch pending) {
+			batchedRows.add(pending.batch.size());
+			submit(pending.batch, "BATCH");
+		}
+
+		/**
+		 * Method to send the batches that are not full yet.
+		 */
+		private void flushBatches() {
+			for (Map<Set<Host>, PendingBatch> tableBatches : batches.values()) {
+				for (PendingBatch pending : tableBatches.values()) {
+					sendBatch(pending);
+				}
+				tableBatches.clear();
+			}
 		}
 
 		/**
@@ -163,84 +734,125 @@ public class CassandraDBCustom extends DB {
 		 * @param table  The table to perform the operation on.
 		 * @param key    The primay key of the new record
 		 * @param values The values to insert.
+		 * @return true if the insert was added to a batch.
 		 */
-		public void insert(String table, String key, Map<String, String> values) {
-			PreparedStatement statement;
-			BoundStatement boundStatement;
+		public boolean insert(String table, String key, Map<String, String> values) {
+			BoundStatement statement;
 
 			// Switch on the table name to handle specific insertions
 			switch (table) {
 			case "users":
-				statement = session
-						.prepare("INSERT INTO users (user_id, username, email, created_at) VALUES (?,?,?,?)");
-				boundStatement = new BoundStatement(statement);
-				session.execute(
-						boundStatement.bind(key, values.get("field0"), values.get("field1"), values.get("field2")));
+				statement = bind(CassandraStatement.INSERT_USERS, key, values.get("field0"), values.get("field1"),
+						values.get("field2"));
 				break;
 			case "posts":
-				statement = session.prepare(
-						"INSERT INTO posts (post_id, user_id, content, platform, posted_time) VALUES (?,?,?,?,?)");
-				boundStatement = new BoundStatement(statement);
-				session.execute(boundStatement.bind(key, values.get("user_id"), values.get("longContent"),
-						values.get("field2"), values.get("field3")));
-
+				statement = bind(CassandraStatement.INSERT_POSTS, key, values.get("user_id"), values.get("longContent"),
+						values.get("field2"), values.get("field3"));
 				break;
 			case "comments":
-				statement = session.prepare(
-						"INSERT INTO comments (comment_id, post_id, content, commented_time) VALUES (?,?,?,?)");
-				boundStatement = new BoundStatement(statement);
-				session.execute(boundStatement.bind(key, values.get("post_id"), values.get("longContent"),
-						values.get("field3")));
+				statement = bind(CassandraStatement.INSERT_COMMENTS, key, values.get("post_id"),
+						values.get("longContent"), values.get("field3"));
 				break;
 			default:
 				throw new IllegalArgumentException("Invalid table " + table);
 			}
+
+			if (batchSize > 0) {
+				addToBatch(table, statement);
+				return true;
+			}
+			execute(statement, "INSERT");
+			return false;
 		}
 
 		/**
 		 * Method to perform a read operation from a given table and key.
 		 * 
 		 * @param table The table to read from.
-		 * @param key   The primary key of the record to read.
-		 * @return A map containing the read values.
+		 * @param key    The primary key of the record to read.
+		 * @param result The map the read values are put into.
 		 */
-		public Map<String, String> read(String table, String key) {
-			PreparedStatement statement;
-			BoundStatement boundStatement;
-			ResultSet resultSet;
+		public void read(String table, String key, Map<String, ByteIterator> result) {
+			CassandraStatement statement;
 
 			switch (table) {
 			case "users":
-				statement = session.prepare("SELECT * FROM users WHERE user_id = ?");
-				boundStatement = new BoundStatement(statement);
-				resultSet = session.execute(boundStatement.bind(key));
+				statement = CassandraStatement.SELECT_USERS;
 				break;
 			case "posts":
-				statement = session.prepare("SELECT * FROM posts WHERE post_id = ?");
-				boundStatement = new BoundStatement(statement);
-				resultSet = session.execute(boundStatement.bind(key));
+				statement = CassandraStatement.SELECT_POSTS;
 				break;
 			case "comments":
-				statement = session.prepare("SELECT * FROM comments WHERE comment_id = ?");
-				boundStatement = new BoundStatement(statement);
-				resultSet = session.execute(boundStatement.bind(key));
+				statement = CassandraStatement.SELECT_COMMENTS;
 				break;
 			default:
 				throw new IllegalArgumentException("Invalid table " + table);
 			}
 
+			ResultSet resultSet = execute(bind(statement, key), "READ");
+			if (resultSet == null) {
+				// async mode: the row is not waited for
+				return;
+			}
+
 			Row row = resultSet.one();
 			if (row == null) {
 				throw new IllegalArgumentException("Key " + key + " not found in table " + table);
 			}
 
-			Map<String, String> result = new HashMap<>();
-			for (ColumnDefinitions.Definition definition : resultSet.getColumnDefinitions()) {
-				String columnName = definition.getName();
-				String value = row.getString(columnName);
-				result.put(columnName, value);
+			// The columns of a statement never change: their names are taken from the
+			// first response and the values are then read by index.
+			String[] columns = COLUMN_NAMES.get(statement.ordinal());
+			if (columns == null) {
+				columns = columnNames(resultSet.getColumnDefinitions());
+				COLUMN_NAMES.set(statement.ordinal(), columns);
+			}
+			putColumns(row, columns, result);
+		}
+
+		/**
+		 * Method to put the values of a row into a map, as ByteIterators over the
+		 * buffers of the response: the values are neither copied nor decoded.
+		 * 
+		 * @param row     The row to read.
+		 * @param columns The names of its columns, by index.
+		 * @param result  The map the values are put into.
+		 */
+		private void putColumns(Row row, String[] columns, Map<String, ByteIterator> result) {
+			for (int i = 0; i < columns.length; i++) {
+				ByteBuffer value = row.getBytesUnsafe(i);
+				if (value != null) {
+					result.put(columns[i], new ByteBufferByteIterator(value));
+				}
+			}
+		}
+
+		/**
+		 * Method to read the records of a table referencing a parent record. The
+		 * foreign key column needs a secondary index; the statement is prepared by
+		 * the first thread using it.
+		 * 
+		 * @param table      The table to read from.
+		 * @param foreignKey The column holding the key of the parent record.
+		 * @param parentKey  The primary key of the parent record.
+		 * @param limit      The maximum number of records to read.
+		 * @param result     The Vector the read records are added to.
+		 */
+		public void readChildren(String table, String foreignKey, String parentKey, int limit,
+				Vector<HashMap<String, ByteIterator>> result) {
+			String query = "SELECT * FROM " + table + " WHERE " + foreignKey + " = ? LIMIT ?";
+			PreparedStatement statement = CHILD_STATEMENTS.computeIfAbsent(query, q -> {
+				PreparedStatement prepared = session.prepare(q);
+				return readConsistency != null ? prepared.setConsistencyLevel(readConsistency) : prepared;
+			});
+			ResultSet resultSet = session.execute(statement.bind(parentKey, limit));
+
+			String[] columns = columnNames(resultSet.getColumnDefinitions());
+			for (Row row : resultSet) {
+				HashMap<String, ByteIterator> record = new HashMap<>();
+				putColumns(row, columns, record);
+				result.add(record);
 			}
-			return result;
 		}
 
 		/**
@@ -252,24 +864,16 @@ public class CassandraDBCustom extends DB {
 		 * @param values The values to update with.
 		 */
 		public void update(String table, String key, Map<String, String> values) {
-			PreparedStatement statement;
-			BoundStatement boundStatement;
 
 			switch (table) {
 			case "users":
-				statement = session.prepare("UPDATE users SET username = ?, email = ? WHERE user_id = ?");
-				boundStatement = new BoundStatement(statement);
-				session.execute(boundStatement.bind(values.get("field0"), values.get("field1"), key));
+				execute(bind(CassandraStatement.UPDATE_USERS, values.get("field0"), values.get("field1"), key), "UPDATE");
 				break;
 			case "posts":
-				statement = session.prepare("UPDATE posts SET content = ?, platform = ? WHERE post_id = ?");
-				boundStatement = new BoundStatement(statement);
-				session.execute(boundStatement.bind(values.get("longContent"), values.get("field1"), key));
+				execute(bind(CassandraStatement.UPDATE_POSTS, values.get("longContent"), values.get("field1"), key), "UPDATE");
 				break;
 			case "comments":
-				statement = session.prepare("UPDATE comments SET content = ? WHERE comment_id = ?");
-				boundStatement = new BoundStatement(statement);
-				session.execute(boundStatement.bind(values.get("longContent"), key));
+				execute(bind(CassandraStatement.UPDATE_COMMENTS, values.get("longContent"), key), "UPDATE");
 				break;
 			default:
 				throw new IllegalArgumentException("Invalid table " + table);
@@ -283,24 +887,16 @@ public class CassandraDBCustom extends DB {
 		 * @param key   The primary key of the record to delete.
 		 */
 		public void delete(String table, String key) {
-			PreparedStatement statement;
-			BoundStatement boundStatement;
 
 			switch (table) {
 			case "users":
-				statement = session.prepare("DELETE FROM users WHERE user_id = ?");
-				boundStatement = new BoundStatement(statement);
-				session.execute(boundStatement.bind(key));
+				execute(bind(CassandraStatement.DELETE_USERS, key), "DELETE");
 				break;
 			case "posts":
-				statement = session.prepare("DELETE FROM posts WHERE post_id = ?");
-				boundStatement = new BoundStatement(statement);
-				session.execute(boundStatement.bind(key));
+				execute(bind(CassandraStatement.DELETE_POSTS, key), "DELETE");
 				break;
 			case "comments":
-				statement = session.prepare("DELETE FROM comments WHERE comment_id = ?");
-				boundStatement = new BoundStatement(statement);
-				session.execute(boundStatement.bind(key));
+				execute(bind(CassandraStatement.DELETE_COMMENTS, key), "DELETE");
 				break;
 			default:
 				throw new IllegalArgumentException("Invalid table " + table);
@@ -311,8 +907,31 @@ public class CassandraDBCustom extends DB {
 		 * Method to close the client connection.
 		 */
 		public void close() {
-			session.close();
-			cluster.close();
+			if (session == null) {
+				// connect() failed
+				return;
+			}
+			flushBatches();
+			if (inFlight != null) {
+				// wait for the requests still in flight
+				inFlight.acquireUninterruptibly(maxInFlight);
+			}
+			if (batchSize > 0) {
+				System.out.println("cassandra batched inserts=" + batchedRows.sum() + ";inserts of failed batches="
+						+ failedBatchRows.sum());
+			}
+
+			synchronized (CLUSTER_LOCK) {
+				if (--clusterReferences == 0) {
+					printPolicyCounters(sharedCluster);
+					sharedSession.close();
+					sharedCluster.close();
+					sharedSession = null;
+					sharedCluster = null;
+					sharedStatements = null;
+					CHILD_STATEMENTS.clear();
+				}
+			}
 		}
 	}
 }
@@ -1,25 +1,44 @@
 package site.ycsb.db;
 
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.AsyncConnection;
+import org.apache.hadoop.hbase.client.AsyncTable;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Durability;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.client.TableDescriptorBuilder;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptorBuilder;
 import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.util.Bytes;
 import site.ycsb.ByteIterator;
 import site.ycsb.DB;
 import site.ycsb.DBException;
+import site.ycsb.MultiTableWorkload;
+import site.ycsb.MultiTableWorkload.DurabilityProfile;
 import site.ycsb.Status;
 import site.ycsb.StringByteIterator;
+import site.ycsb.measurements.Measurements;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 public class HBaseDBCustom extends DB {
 
@@ -40,10 +59,11 @@ public class HBaseDBCustom extends DB {
 	@Override
 	public void init() throws DBException {
 		try {
-			client.connect();
+			client.connect(getProperties());
 		} catch (Exception e) {
 			throw new DBException("error occurred during init");
 		}
+		MultiTableWorkload.registerBinding(this, client.async);
 	}
 
 	/**
@@ -59,9 +79,7 @@ public class HBaseDBCustom extends DB {
 	@Override
 	public Status read(String table, String key, Set<String> fields, Map<String, ByteIterator> result) {
 		try {
-			Map<String, String> record = client.read(table, key);
-			result.putAll(StringByteIterator.getByteIteratorMap(record));
-			return Status.OK;
+			return client.read(table, key, fields, result) ? Status.OK : Status.NOT_FOUND;
 		} catch (Exception e) {
 			e.printStackTrace();
 			return Status.ERROR;
@@ -138,6 +156,234 @@ public class HBaseDBCustom extends DB {
 		client.close();
 	}
 
+	// Column family and qualifiers, converted to bytes once
+	private static final byte[] FAMILY = Bytes.toBytes("info");
+	private static final byte[] USERNAME = Bytes.toBytes("username");
+	private static final byte[] EMAIL = Bytes.toBytes("email");
+	private static final byte[] CREATED_AT = Bytes.toBytes("created_at");
+	private static final byte[] USER_ID = Bytes.toBytes("user_id");
+	private static final byte[] CONTENT = Bytes.toBytes("content");
+	private static final byte[] PLATFORM = Bytes.toBytes("platform");
+	private static final byte[] POSTED_TIME = Bytes.toBytes("posted_time");
+	private static final byte[] POST_ID = Bytes.toBytes("post_id");
+	private static final byte[] COMMENTED_TIME = Bytes.toBytes("commented_time");
+
+	/**
+	 * The tables of the benchmark, with the name and the qualifier of their
+	 * columns.
+	 */
+	enum HBaseTable {
+		USERS("users", new String[] { "username", "email", "created_at" }, USERNAME, EMAIL, CREATED_AT),
+		POSTS("posts", new String[] { "user_id", "content", "platform", "posted_time" }, USER_ID, CONTENT, PLATFORM,
+				POSTED_TIME),
+		COMMENTS("comments", new String[] { "post_id", "content", "commented_time" }, POST_ID, CONTENT,
+				COMMENTED_TIME);
+
+		private final TableName tableName;
+		private final String[] columns;
+		private final byte[][] qualifiers;
+
+		HBaseTable(String name, String[] columns, byte[]... qualifiers) {
+			this.tableName = TableName.valueOf(name);
+			this.columns = columns;
+			this.qualifiers = qualifiers;
+		}
+
+		/**
+		 * Returns the name of the column of a cell, comparing its qualifier in place.
+		 * 
+		 * @param cell The cell.
+		 * @return The name of the column, or null if it is not a column of the table.
+		 */
+		String column(Cell cell) {
+			for (int i = 0; i < qualifiers.length; i++) {
+				if (Bytes.equals(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength(),
+						qualifiers[i], 0, qualifiers[i].length)) {
+					return columns[i];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Returns the table with the given name.
+		 * 
+		 * @param table The name of the table.
+		 * @return The table.
+		 */
+		static HBaseTable of(String table) {
+			switch (table) {
+			case "users":
+				return USERS;
+			case "posts":
+				return POSTS;
+			case "comments":
+				return COMMENTS;
+			default:
+				throw new IllegalArgumentException("Invalid table " + table);
+			}
+		}
+	}
+
+	/**
+	 * ByteIterator over the value of a cell, read in place from the array backing
+	 * the response. The value is only decoded from UTF-8 if toString() is called.
+	 */
+	static final class CellValueByteIterator extends ByteIterator {
+		private final byte[] buf;
+		private final int start;
+		private final int end;
+		private int position;
+
+		CellValueByteIterator(Cell cell) {
+			this.buf = cell.getValueArray();
+			this.start = cell.getValueOffset();
+			this.end = start + cell.getValueLength();
+			this.position = start;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < end;
+		}
+
+		@Override
+		public byte nextByte() {
+			return buf[position++];
+		}
+
+		@Override
+		public int nextBuf(byte[] dst, int dstOffset) {
+			int n = Math.min(end - position, dst.length - dstOffset);
+			System.arraycopy(buf, position, dst, dstOffset, n);
+			position += n;
+			return dstOffset + n;
+		}
+
+		@Override
+		public long bytesLeft() {
+			return end - position;
+		}
+
+		@Override
+		public void reset() {
+			position = start;
+		}
+
+		@Override
+		public byte[] toArray() {
+			byte[] ret = Arrays.copyOfRange(buf, position, end);
+			position = end;
+			return ret;
+		}
+
+		@Override
+		public String toString() {
+			String ret = new String(buf, position, end - position, StandardCharsets.UTF_8);
+			position = end;
+			return ret;
+		}
+	}
+
+	// WAL durability of the writes, resolved (and printed) by the first client
+	// thread.
+	private static final Object DURABILITY_LOCK = new Object();
+	private static boolean durabilityResolved = false;
+	private static Durability sharedDurability;
+
+	/**
+	 * Returns the WAL durability of durability.profile, computed once for all the
+	 * client threads.
+	 * 
+	 * @param p The properties of the benchmark.
+	 * @return The durability, or null to keep the one of the table.
+	 */
+	private static Durability resolveDurability(Properties p) {
+		synchronized (DURABILITY_LOCK) {
+			if (!durabilityResolved) {
+				sharedDurability = toDurability(DurabilityProfile.of(p));
+				durabilityResolved = true;
+			}
+			return sharedDurability;
+		}
+	}
+
+	/**
+	 * Maps the durability profile to the WAL durability of the writes:
+	 * <ul>
+	 * <li>strict: SYNC_WAL, the write is acknowledged once the WAL is synced to
+	 * the HDFS replicas</li>
+	 * <li>balanced: ASYNC_WAL, the WAL is synced in the background</li>
+	 * <li>fast: SKIP_WAL, the write only reaches the memstore</li>
+	 * </ul>
+	 * The reads are always strongly consistent (one replica per region).
+	 * 
+	 * @param profile The durability profile, or null.
+	 * @return The durability, or null to keep the one of the table.
+	 */
+	private static Durability toDurability(DurabilityProfile profile) {
+		if (profile == null) {
+			return null;
+		}
+		Durability durability;
+		switch (profile) {
+		case STRICT:
+			durability = Durability.SYNC_WAL;
+			break;
+		case BALANCED:
+			durability = Durability.ASYNC_WAL;
+			break;
+		default:
+			durability = Durability.SKIP_WAL;
+			break;
+		}
+		System.out.println("hbase durability profile=" + profile.name().toLowerCase() + ";durability=" + durability);
+		return durability;
+	}
+
+	private static final Object CREATE_TABLES_LOCK = new Object();
+	private static boolean tablesCreated = false;
+
+	/**
+	 * Creates the tables of HBaseTable that do not exist yet, with the column
+	 * family "info". With salted keys each table is pre-split into one region per
+	 * salt bucket, so the writes are spread over the region servers from the
+	 * start. Only the first client thread creates them.
+	 * 
+	 * @param config      The configuration of the connection.
+	 * @param saltBuckets The number of salt buckets, 0 if the keys are not salted.
+	 * @throws IOException
+	 */
+	private static void createTables(Configuration config, int saltBuckets) throws IOException {
+		synchronized (CREATE_TABLES_LOCK) {
+			if (tablesCreated) {
+				return;
+			}
+			byte[][] splitKeys = new byte[Math.max(saltBuckets - 1, 0)][];
+			for (int i = 0; i < splitKeys.length; i++) {
+				splitKeys[i] = new byte[] { (byte) (i + 1) };
+			}
+			try (Connection connection = ConnectionFactory.createConnection(config);
+					Admin admin = connection.getAdmin()) {
+				for (HBaseTable table : HBaseTable.values()) {
+					if (admin.tableExists(table.tableName)) {
+						System.out.println("table=" + table.tableName + ";already exists");
+						continue;
+					}
+					TableDescriptor descriptor = TableDescriptorBuilder.newBuilder(table.tableName)
+							.setColumnFamily(ColumnFamilyDescriptorBuilder.of(FAMILY)).build();
+					if (splitKeys.length > 0) {
+						admin.createTable(descriptor, splitKeys);
+					} else {
+						admin.createTable(descriptor);
+					}
+					System.out.println("table=" + table.tableName + ";created with regions=" + (splitKeys.length + 1));
+				}
+			}
+			tablesCreated = true;
+		}
+	}
+
 	/*
 	 * Inner class to handle connection with the HBase database
 	 */
@@ -146,17 +392,80 @@ public class HBaseDBCustom extends DB {
 		private Connection connection;
 		private Admin admin;
 
+		// Table handles of this thread, opened on first use and indexed by the
+		// ordinal of HBaseTable
+		private final Table[] tables = new Table[HBaseTable.values().length];
+
+		// With hbase.clientbuffering=true, inserts and updates are queued in a
+		// BufferedMutator per table, sent when hbase.writebuffersize bytes are
+		// buffered or after hbase.flushintervalms. Failed mutations are counted
+		// by the exception listener.
+		private boolean clientBuffering;
+		private long writeBufferSize;
+		private long flushInterval;
+		private final BufferedMutator[] mutators = new BufferedMutator[HBaseTable.values().length];
+		private final LongAdder failedMutations = new LongAdder();
+
+		// With hbase.async=true, the requests are sent through an AsyncConnection
+		// and the calling thread only blocks when hbase.maxinflight requests are
+		// already waiting for a response.
+		private boolean async;
+		private AsyncConnection asyncConnection;
+		private final AsyncTable<?>[] asyncTables = new AsyncTable<?>[HBaseTable.values().length];
+		private Semaphore inFlight;
+		private int maxInFlight;
+
+		// With hbase.saltbuckets > 0, every row key is prefixed by a salt byte
+		// (the hash of the key modulo the number of buckets), so consecutive keys
+		// are spread over the regions.
+		private int saltBuckets;
+
+		// WAL durability of the writes, from durability.profile (null keeps the
+		// durability of the table)
+		private Durability durability;
+
 		/**
 		 * Method to connect to the HBase cluster
+		 * 
+		 * @param p The properties of the benchmark.
 		 */
-		public void connect() throws IOException, DBException {
+		public void connect(Properties p) throws IOException, DBException {
+			clientBuffering = Boolean.parseBoolean(p.getProperty("hbase.clientbuffering", "false"));
+			writeBufferSize = Long.parseLong(p.getProperty("hbase.writebuffersize", String.valueOf(2 * 1024 * 1024)));
+			flushInterval = Long.parseLong(p.getProperty("hbase.flushintervalms", "1000"));
+			async = Boolean.parseBoolean(p.getProperty("hbase.async", "false"));
+			saltBuckets = Integer.parseInt(p.getProperty("hbase.saltbuckets", "0"));
+			if (saltBuckets < 0 || saltBuckets > 256) {
+				throw new DBException("hbase.saltbuckets must be between 0 and 256");
+			}
+			durability = resolveDurability(p);
+			if (async) {
+				maxInFlight = Integer.parseInt(p.getProperty("hbase.maxinflight", "64"));
+				inFlight = new Semaphore(maxInFlight);
+			}
+
 			Configuration config = HBaseConfiguration.create();
 			config.set("hbase.zookeeper.quorum", "hbase-docker");
 			config.set("hbase.zookeeper.property.clientPort", "2181");
 			System.out.println("connecting...");
+			if (Boolean.parseBoolean(p.getProperty("hbase.createtables", "false"))) {
+				createTables(config, saltBuckets);
+			}
+			final TableName tName = TableName.valueOf("users");
+			if (async) {
+				try {
+					asyncConnection = ConnectionFactory.createAsyncConnection(config).get();
+					System.out.println("Connected");
+					if (!asyncConnection.getAdmin().tableExists(tName).get()) {
+						throw new DBException("Table " + tName + " does not exists");
+					}
+				} catch (InterruptedException | ExecutionException e) {
+					throw new IOException(e);
+				}
+				return;
+			}
 			connection = ConnectionFactory.createConnection(config);
 			System.out.println("Connected");
-			final TableName tName = TableName.valueOf("users");
 			try (Admin admin = connection.getAdmin()) {
 				if (!admin.tableExists(tName)) {
 					throw new DBException("Table " + tName + " does not exists");
@@ -164,6 +473,196 @@ public class HBaseDBCustom extends DB {
 			}
 		}
 
+		/**
+		 * Returns the handle of a table, opening it on first use.
+		 * 
+		 * @param table The table.
+		 * @return The handle of the table.
+		 */
+		private Table getTable(HBaseTable table) throws IOException {
+			Table hTable = tables[table.ordinal()];
+			if (hTable == null) {
+				hTable = connection.getTable(table.tableName);
+				tables[table.ordinal()] = hTable;
+			}
+			return hTable;
+		}
+
+		/**
+		 * Returns the BufferedMutator of a table, creating it on first use.
+		 * 
+		 * @param table The table.
+		 * @return The BufferedMutator of the table.
+		 */
+		private BufferedMutator getMutator(HBaseTable table) throws IOException {
+			BufferedMutator mutator = mutators[table.ordinal()];
+			if (mutator == null) {
+				BufferedMutatorParams params = new BufferedMutatorParams(table.tableName)
+						.writeBufferSize(writeBufferSize).listener(this::onMutationsFailed);
+				if (flushInterval > 0) {
+					params.setWriteBufferPeriodicFlushTimeoutMs(flushInterval);
+				}
+				mutator = connection.getBufferedMutator(params);
+				mutators[table.ordinal()] = mutator;
+			}
+			return mutator;
+		}
+
+		/**
+		 * Exception listener of the BufferedMutators: the mutations that failed
+		 * after all the retries are reported as errors of the BUFFERED-WRITE series
+		 * instead of failing the operation that happened to trigger the flush.
+		 * 
+		 * @param e       The failed mutations.
+		 * @param mutator The BufferedMutator.
+		 */
+		private void onMutationsFailed(RetriesExhaustedWithDetailsException e, BufferedMutator mutator) {
+			int failed = e.getNumExceptions();
+			failedMutations.add(failed);
+			for (int i = 0; i < failed; i++) {
+				Measurements.getMeasurements().reportStatus("BUFFERED-WRITE", Status.ERROR);
+			}
+			System.err.println("table=" + mutator.getName() + ";failed buffered writes=" + failed + ";"
+					+ e.getMessage());
+		}
+
+		/**
+		 * Returns the asynchronous handle of a table, creating it on first use.
+		 * 
+		 * @param table The table.
+		 * @return The asynchronous handle of the table.
+		 */
+		private AsyncTable<?> getAsyncTable(HBaseTable table) {
+			AsyncTable<?> asyncTable = asyncTables[table.ordinal()];
+			if (asyncTable == null) {
+				asyncTable = asyncConnection.getTable(table.tableName);
+				asyncTables[table.ordinal()] = asyncTable;
+			}
+			return asyncTable;
+		}
+
+		/**
+		 * Method to send a request asynchronously, blocking while the in-flight
+		 * window is full. Its latency is recorded in the ASYNC-[operation] series
+		 * when it completes; the series of the operation itself then only measures
+		 * the time to send it.
+		 * 
+		 * @param operation The name of the operation, e.g. READ.
+		 * @param request   Sends the request.
+		 */
+		private void submit(String operation, Supplier<CompletableFuture<?>> request) {
+			// Back-pressure: wait for a slot of the in-flight window.
+			inFlight.acquireUninterruptibly();
+			final String measurementName = "ASYNC-" + operation;
+			final long intendedStartTime = Measurements.getMeasurements().getIntendedStartTimeNs();
+			final long startTime = System.nanoTime();
+			CompletableFuture<?> future;
+			try {
+				future = request.get();
+			} catch (RuntimeException e) {
+				inFlight.release();
+				throw e;
+			}
+			future.whenComplete((response, error) -> {
+				Status status = Status.OK;
+				if (error != null) {
+					status = Status.ERROR;
+				} else if (response instanceof Result && ((Result) response).isEmpty()) {
+					status = Status.NOT_FOUND;
+				}
+				long endTime = System.nanoTime();
+				Measurements measurements = Measurements.getMeasurements();
+				String name = status.isOk() ? measurementName : measurementName + "-FAILED";
+				measurements.measure(name, (int) ((endTime - startTime) / 1000));
+				measurements.measureIntended(name, (int) ((endTime - intendedStartTime) / 1000));
+				measurements.reportStatus(measurementName, status);
+				inFlight.release();
+			});
+		}
+
+		/**
+		 * Method to write a Put: asynchronously in async mode, through the
+		 * BufferedMutator of the table when client buffering is enabled.
+		 * 
+		 * @param table     The table.
+		 * @param p         The Put.
+		 * @param operation The name of the operation, e.g. INSERT.
+		 */
+		private void put(HBaseTable table, Put p, String operation) throws IOException {
+			if (durability != null) {
+				p.setDurability(durability);
+			}
+			if (async) {
+				submit(operation, () -> getAsyncTable(table).put(p));
+			} else if (clientBuffering) {
+				getMutator(table).mutate(p);
+			} else {
+				getTable(table).put(p);
+			}
+		}
+
+		/**
+		 * Returns the row key of a record salted with its bucket: one byte, derived
+		 * from the hash of the key, followed by the key itself.
+		 * 
+		 * @param key    The key bytes.
+		 * @param length The length of the key.
+		 * @return The salted row key.
+		 */
+		private byte[] saltedRow(byte[] key, int length) {
+			byte[] row = new byte[length + 1];
+			row[0] = (byte) ((Bytes.hashCode(key, 0, length) & Integer.MAX_VALUE) % saltBuckets);
+			System.arraycopy(key, 0, row, 1, length);
+			return row;
+		}
+
+		/**
+		 * Returns the salted row key of a record.
+		 * 
+		 * @param key The key of the record.
+		 * @return The salted row key.
+		 */
+		private byte[] saltedRow(String key) {
+			MultiTableWorkload.EncodedKey encoded = MultiTableWorkload.encodedKey(key);
+			if (encoded != null) {
+				return saltedRow(encoded.bytes(), encoded.length());
+			}
+			byte[] bytes = Bytes.toBytes(key);
+			return saltedRow(bytes, bytes.length);
+		}
+
+		/*
+		 * The following methods create the operations on a row. Keys generated by
+		 * MultiTableWorkload are already encoded in its buffer, which is copied
+		 * into the operation; other keys are converted to bytes. With salting, the
+		 * salted row key is built first.
+		 */
+
+		private Put newPut(String key) {
+			if (saltBuckets > 0) {
+				return new Put(saltedRow(key), true);
+			}
+			MultiTableWorkload.EncodedKey encoded = MultiTableWorkload.encodedKey(key);
+			return encoded != null ? new Put(encoded.bytes(), 0, encoded.length()) : new Put(Bytes.toBytes(key));
+		}
+
+		private Get newGet(String key) {
+			if (saltBuckets > 0) {
+				return new Get(saltedRow(key));
+			}
+			MultiTableWorkload.EncodedKey encoded = MultiTableWorkload.encodedKey(key);
+			return encoded != null ? new Get(encoded.bytes(), 0, encoded.length()) : new Get(Bytes.toBytes(key));
+		}
+
+		private Delete newDelete(String key) {
+			if (saltBuckets > 0) {
+				return new Delete(saltedRow(key));
+			}
+			MultiTableWorkload.EncodedKey encoded = MultiTableWorkload.encodedKey(key);
+			return encoded != null ? new Delete(encoded.bytes(), 0, encoded.length())
+					: new Delete(Bytes.toBytes(key));
+		}
+
 		/**
 		 * Method to perform an insert operation.
 		 *
@@ -172,84 +671,78 @@ public class HBaseDBCustom extends DB {
 		 * @param values The values to insert.
 		 */
 		public void insert(String table, String key, Map<String, String> values) throws IOException {
-			Table hTable = connection.getTable(TableName.valueOf(table));
-			Put p = new Put(Bytes.toBytes(key)); // Convert key to bytes
+			HBaseTable hbaseTable = HBaseTable.of(table);
+			Put p = newPut(key);
 
 			// Different columns are set based on the table being accessed
-			switch (table) {
-			case "users":
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("username"), Bytes.toBytes(values.get("field0")));
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("email"), Bytes.toBytes(values.get("field1")));
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("created_at"), Bytes.toBytes(values.get("field2")));
+			switch (hbaseTable) {
+			case USERS:
+				p.addColumn(FAMILY, USERNAME, Bytes.toBytes(values.get("field0")));
+				p.addColumn(FAMILY, EMAIL, Bytes.toBytes(values.get("field1")));
+				p.addColumn(FAMILY, CREATED_AT, Bytes.toBytes(values.get("field2")));
 				break;
-			case "posts":
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("user_id"), Bytes.toBytes(values.get("user_id")));
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("content"), Bytes.toBytes(values.get("longContent")));
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("platform"), Bytes.toBytes(values.get("field2")));
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("posted_time"), Bytes.toBytes(values.get("field3")));
+			case POSTS:
+				p.addColumn(FAMILY, USER_ID, Bytes.toBytes(values.get("user_id")));
+				p.addColumn(FAMILY, CONTENT, Bytes.toBytes(values.get("longContent")));
+				p.addColumn(FAMILY, PLATFORM, Bytes.toBytes(values.get("field2")));
+				p.addColumn(FAMILY, POSTED_TIME, Bytes.toBytes(values.get("field3")));
 				break;
-			case "comments":
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("post_id"), Bytes.toBytes(values.get("post_id")));
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("content"), Bytes.toBytes(values.get("longContent")));
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("commented_time"),
-						Bytes.toBytes(values.get("field3")));
+			case COMMENTS:
+				p.addColumn(FAMILY, POST_ID, Bytes.toBytes(values.get("post_id")));
+				p.addColumn(FAMILY, CONTENT, Bytes.toBytes(values.get("longContent")));
+				p.addColumn(FAMILY, COMMENTED_TIME, Bytes.toBytes(values.get("field3")));
 				break;
-			default:
-				throw new IllegalArgumentException("Invalid table " + table);
 			}
 
-			hTable.put(p); // Put the data into the table
-			hTable.close();
+			put(hbaseTable, p, "INSERT"); // Put the data into the table
 		}
 
 		/**
-		 * Method to perform a read operation from a given table and key.
+		 * Method to perform a read operation from a given table and key. Only the
+		 * requested columns are fetched, and the cells of the response are walked
+		 * once: each value is put into the result as a ByteIterator over the cell,
+		 * without copying it.
 		 *
-		 * @param table The table to read from.
-		 * @param key   The key of the record to read.
-		 * @return A map containing the read values.
+		 * @param table  The table to read from.
+		 * @param key    The key of the record to read.
+		 * @param fields The columns to read, or null for all of them.
+		 * @param result The map the read values are put into.
+		 * @return false if the record does not exist.
 		 */
-		public Map<String, String> read(String table, String key) throws IOException {
-			Table hTable = connection.getTable(TableName.valueOf(table));
-			Get g = new Get(Bytes.toBytes(key)); // Convert key to bytes
-
-			Result result = hTable.get(g);
-
-			Map<String, String> resultMap = new HashMap<>();
+		public boolean read(String table, String key, Set<String> fields, Map<String, ByteIterator> result)
+				throws IOException {
+			HBaseTable hbaseTable = HBaseTable.of(table);
+			Get g = newGet(key);
+			boolean projected = false;
+			if (fields != null) {
+				for (int i = 0; i < hbaseTable.columns.length; i++) {
+					if (fields.contains(hbaseTable.columns[i])) {
+						g.addColumn(FAMILY, hbaseTable.qualifiers[i]);
+						projected = true;
+					}
+				}
+			}
+			if (!projected) {
+				g.addFamily(FAMILY);
+			}
 
-			// Different columns are read based on the table being accessed
-			switch (table) {
-			case "users":
-				resultMap.put("username",
-						Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("username"))));
-				resultMap.put("email", Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("email"))));
-				resultMap.put("created_at",
-						Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("created_at"))));
-				break;
-			case "posts":
-				resultMap.put("user_id",
-						Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("user_id"))));
-				resultMap.put("content",
-						Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("content"))));
-				resultMap.put("platform",
-						Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("platform"))));
-				resultMap.put("posted_time",
-						Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("posted_time"))));
-				break;
-			case "comments":
-				resultMap.put("post_id",
-						Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("post_id"))));
-				resultMap.put("content",
-						Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("content"))));
-				resultMap.put("commented_time",
-						Bytes.toString(result.getValue(Bytes.toBytes("info"), Bytes.toBytes("commented_time"))));
-				break;
-			default:
-				throw new IllegalArgumentException("Invalid table " + table);
+			if (async) {
+				// the row is not waited for
+				submit("READ", () -> getAsyncTable(hbaseTable).get(g));
+				return true;
 			}
 
-			hTable.close();
-			return resultMap;
+			Result row = getTable(hbaseTable).get(g);
+			if (row.isEmpty()) {
+				return false;
+			}
+			for (Cell cell : row.rawCells()) {
+				String column = hbaseTable.column(cell);
+				if (column != null) {
+					result.put(column, new CellValueByteIterator(cell));
+				}
+			}
+			return true;
 		}
 
 		/**
@@ -260,28 +753,25 @@ public class HBaseDBCustom extends DB {
 		 * @param values The values to update.
 		 */
 		public void update(String table, String key, Map<String, String> values) throws IOException {
-			Table hTable = connection.getTable(TableName.valueOf(table));
-			Put p = new Put(Bytes.toBytes(key)); // Convert key to bytes
+			HBaseTable hbaseTable = HBaseTable.of(table);
+			Put p = newPut(key);
 
 			// Different columns are set based on the table being accessed
-			switch (table) {
-			case "users":
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("username"), Bytes.toBytes(values.get("field0")));
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("email"), Bytes.toBytes(values.get("field1")));
+			switch (hbaseTable) {
+			case USERS:
+				p.addColumn(FAMILY, USERNAME, Bytes.toBytes(values.get("field0")));
+				p.addColumn(FAMILY, EMAIL, Bytes.toBytes(values.get("field1")));
 				break;
-			case "posts":
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("content"), Bytes.toBytes(values.get("longContent")));
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("platform"), Bytes.toBytes(values.get("field1")));
+			case POSTS:
+				p.addColumn(FAMILY, CONTENT, Bytes.toBytes(values.get("longContent")));
+				p.addColumn(FAMILY, PLATFORM, Bytes.toBytes(values.get("field1")));
 				break;
-			case "comments":
-				p.addColumn(Bytes.toBytes("info"), Bytes.toBytes("content"), Bytes.toBytes(values.get("longContent")));
+			case COMMENTS:
+				p.addColumn(FAMILY, CONTENT, Bytes.toBytes(values.get("longContent")));
 				break;
-			default:
-				throw new IllegalArgumentException("Invalid table " + table);
 			}
 
-			hTable.put(p); // Update the data
-			hTable.close();
+			put(hbaseTable, p, "UPDATE"); // Update the data
 		}
 
 		/**
@@ -291,10 +781,21 @@ public class HBaseDBCustom extends DB {
 		 * @param key   The key of the record to delete.
 		 */
 		public void delete(String table, String key) throws IOException {
-			Table hTable = connection.getTable(TableName.valueOf(table));
-			Delete d = new Delete(Bytes.toBytes(key)); // Convert key to bytes
-			hTable.delete(d); // Delete the data from the table
-			hTable.close();
+			HBaseTable hbaseTable = HBaseTable.of(table);
+			Delete d = newDelete(key);
+			if (durability != null) {
+				d.setDurability(durability);
+			}
+			if (async) {
+				submit("DELETE", () -> getAsyncTable(hbaseTable).delete(d));
+				return;
+			}
+			BufferedMutator mutator = mutators[hbaseTable.ordinal()];
+			if (mutator != null) {
+				// a buffered update of the row must not be applied after the delete
+				mutator.flush();
+			}
+			getTable(hbaseTable).delete(d); // Delete the data from the table
 		}
 
 		/**
@@ -302,6 +803,25 @@ public class HBaseDBCustom extends DB {
 		 */
 		public void close() {
 			try {
+				if (async) {
+					// wait for the requests still in flight
+					inFlight.acquireUninterruptibly(maxInFlight);
+					asyncConnection.close();
+					return;
+				}
+				for (BufferedMutator mutator : mutators) {
+					if (mutator != null) {
+						mutator.close(); // flushes the buffered writes
+					}
+				}
+				if (failedMutations.sum() > 0) {
+					System.out.println("failed buffered writes=" + failedMutations.sum());
+				}
+				for (Table hTable : tables) {
+					if (hTable != null) {
+						hTable.close();
+					}
+				}
 				this.connection.close();
 			} catch (IOException e) {
 				e.printStackTrace(); // log the exception
@@ -1,10 +1,19 @@
 package site.ycsb.db;
 
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoCredential;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.*;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import org.bson.Document;
@@ -12,19 +21,29 @@ import org.bson.Document;
 import site.ycsb.ByteIterator;
 import site.ycsb.DB;
 import site.ycsb.DBException;
+import site.ycsb.MultiTableWorkload;
+import site.ycsb.MultiTableWorkload.DurabilityProfile;
 import site.ycsb.Status;
 import site.ycsb.StringByteIterator;
+import site.ycsb.measurements.Measurements;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 import java.io.IOException;
-import java.util.Arrays;
 
-public class MongoDBCustomClient extends DB {
+public class MongoDBCustomClient extends DB implements MultiTableWorkload.ChildReader {
 	private MongoDBClient client;
 
+	// Client and collections shared by all the client threads.
+	private static final SharedMongoClient<MongoClient, MongoDatabase, MongoCollection<Document>> SHARED_CLIENT =
+			new SharedMongoClient<>(MongoClients::create, MongoClient::getDatabase, MongoDatabase::getCollection);
+
 	/**
 	 * Constructor to initialize the client.
 	 */
@@ -39,7 +58,8 @@ public class MongoDBCustomClient extends DB {
 	 */
 	@Override
 	public void init() throws DBException {
-		client.connect();
+		client.connect(getProperties());
+		MultiTableWorkload.registerBinding(this);
 	}
 
 	/**
@@ -75,8 +95,7 @@ public class MongoDBCustomClient extends DB {
 	@Override
 	public Status insert(String table, String key, Map<String, ByteIterator> values) {
 		try {
-			client.insert(table, key, StringByteIterator.getStringMap(values));
-			return Status.OK;
+			return client.insert(table, key, StringByteIterator.getStringMap(values)) ? Status.BATCHED_OK : Status.OK;
 		} catch (Exception e) {
 			e.printStackTrace();
 			return Status.ERROR;
@@ -120,6 +139,33 @@ public class MongoDBCustomClient extends DB {
 		}
 	}
 
+	/**
+	 * This method reads the records of a table that reference a given parent
+	 * record, e.g. the comments of a post.
+	 * 
+	 * @param table      The name of the table
+	 * @param foreignKey The field holding the key of the parent record
+	 * @param parentKey  The primary key of the parent record
+	 * @param limit      The maximum number of records to read
+	 * @param result     A Vector of field/value maps, one for each record
+	 * @return The result of the operation.
+	 */
+	@Override
+	public Status readChildren(String table, String foreignKey, String parentKey, int limit,
+			Vector<HashMap<String, ByteIterator>> result) {
+		try {
+			for (Map<String, String> record : client.readChildren(table, foreignKey, parentKey, limit)) {
+				HashMap<String, ByteIterator> values = new HashMap<>();
+				StringByteIterator.putAllAsByteIterators(values, record);
+				result.add(values);
+			}
+			return Status.OK;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return Status.ERROR;
+		}
+	}
+
 	@Override
 	public Status scan(String table, String startkey, int recordcount, Set<String> fields,
 			Vector<HashMap<String, ByteIterator>> result) {
@@ -134,26 +180,296 @@ public class MongoDBCustomClient extends DB {
 		client.close();
 	}
 
+	/**
+	 * Builds the settings of the MongoClient from the properties, shared with
+	 * MongoDBReactiveClient:
+	 * <ul>
+	 * <li>mongodb.hosts: comma separated host:port list (default
+	 * localhost:27017)</li>
+	 * <li>mongodb.username, mongodb.password, mongodb.authdb: credentials (default
+	 * root, example, admin)</li>
+	 * <li>mongodb.minpoolsize, mongodb.maxpoolsize, mongodb.maxwaittimems:
+	 * connection pool of each host</li>
+	 * <li>mongodb.compressors: comma separated list of snappy, zlib and zstd</li>
+	 * <li>mongodb.serverselectiontimeoutms: time to wait for a suitable
+	 * server</li>
+	 * </ul>
+	 * The options that are not set keep the driver defaults. The durability
+	 * profile, if any, sets the write concern, read concern and read preference.
+	 * 
+	 * @param p The properties of the benchmark.
+	 * @return The settings of the MongoClient.
+	 */
+	static MongoClientSettings buildSettings(Properties p) {
+		List<ServerAddress> hosts = new ArrayList<>();
+		for (String host : p.getProperty("mongodb.hosts", "localhost:27017").split(",")) {
+			String[] hostPort = host.trim().split(":");
+			hosts.add(hostPort.length > 1 ? new ServerAddress(hostPort[0], Integer.parseInt(hostPort[1]))
+					: new ServerAddress(hostPort[0]));
+		}
+		String serverSelectionTimeout = p.getProperty("mongodb.serverselectiontimeoutms");
+
+		MongoClientSettings.Builder builder = MongoClientSettings.builder().applyToClusterSettings(cluster -> {
+			cluster.hosts(hosts);
+			if (serverSelectionTimeout != null) {
+				cluster.serverSelectionTimeout(Long.parseLong(serverSelectionTimeout), TimeUnit.MILLISECONDS);
+			}
+		}).applyToConnectionPoolSettings(pool -> {
+			String minPoolSize = p.getProperty("mongodb.minpoolsize");
+			if (minPoolSize != null) {
+				pool.minSize(Integer.parseInt(minPoolSize));
+			}
+			String maxPoolSize = p.getProperty("mongodb.maxpoolsize");
+			if (maxPoolSize != null) {
+				pool.maxSize(Integer.parseInt(maxPoolSize));
+			}
+			String maxWaitTime = p.getProperty("mongodb.maxwaittimems");
+			if (maxWaitTime != null) {
+				pool.maxWaitTime(Long.parseLong(maxWaitTime), TimeUnit.MILLISECONDS);
+			}
+		});
+
+		String username = p.getProperty("mongodb.username", "root");
+		if (!username.isEmpty()) {
+			builder.credential(MongoCredential.createCredential(username, p.getProperty("mongodb.authdb", "admin"),
+					p.getProperty("mongodb.password", "example").toCharArray()));
+		}
+
+		String compressors = p.getProperty("mongodb.compressors", "");
+		List<MongoCompressor> compressorList = new ArrayList<>();
+		for (String compressor : compressors.split(",")) {
+			switch (compressor.trim().toLowerCase()) {
+			case "":
+				break;
+			case "snappy":
+				compressorList.add(MongoCompressor.createSnappyCompressor());
+				break;
+			case "zlib":
+				compressorList.add(MongoCompressor.createZlibCompressor());
+				break;
+			case "zstd":
+				compressorList.add(MongoCompressor.createZstdCompressor());
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid compressor " + compressor);
+			}
+		}
+		builder.compressorList(compressorList);
+
+		applyDurabilityProfile(builder, DurabilityProfile.of(p));
+
+		System.out.println("mongodb hosts:" + hosts + ";compressors:" + (compressors.isEmpty() ? "none" : compressors));
+		return builder.build();
+	}
+
+	/**
+	 * Maps the durability profile to the write concern, read concern and read
+	 * preference of the client:
+	 * <ul>
+	 * <li>strict: majority and journaled writes, majority reads from the
+	 * primary</li>
+	 * <li>balanced: journaled writes acknowledged by the primary, local reads from
+	 * the primary</li>
+	 * <li>fast: writes acknowledged by the primary before the journal, local reads
+	 * from the nearest member</li>
+	 * </ul>
+	 * 
+	 * @param builder The settings of the client.
+	 * @param profile The durability profile, or null to keep the defaults.
+	 */
+	private static void applyDurabilityProfile(MongoClientSettings.Builder builder, DurabilityProfile profile) {
+		if (profile == null) {
+			return;
+		}
+		WriteConcern writeConcern;
+		ReadConcern readConcern;
+		ReadPreference readPreference;
+		switch (profile) {
+		case STRICT:
+			writeConcern = WriteConcern.MAJORITY.withJournal(true);
+			readConcern = ReadConcern.MAJORITY;
+			readPreference = ReadPreference.primary();
+			break;
+		case BALANCED:
+			writeConcern = WriteConcern.W1.withJournal(true);
+			readConcern = ReadConcern.LOCAL;
+			readPreference = ReadPreference.primary();
+			break;
+		default:
+			writeConcern = WriteConcern.W1.withJournal(false);
+			readConcern = ReadConcern.LOCAL;
+			readPreference = ReadPreference.nearest();
+			break;
+		}
+		builder.writeConcern(writeConcern).readConcern(readConcern).readPreference(readPreference);
+		System.out.println("mongodb durability profile=" + profile.name().toLowerCase() + ";write concern="
+				+ writeConcern.asDocument().toJson() + ";read concern=" + readConcern.getLevel() + ";read preference="
+				+ readPreference.getName());
+	}
+
+	/**
+	 * Returns the document of a new record.
+	 * 
+	 * @param table  The collection of the record.
+	 * @param key    The _id of the record.
+	 * @param values The values of the record.
+	 * @return The document.
+	 */
+	static Document toDocument(String table, String key, Map<String, String> values) {
+		Document doc = new Document("_id", key);
+		if (table.equals("users")) {
+			doc.append("username", values.get("field0")).append("email", values.get("field1")).append("created_at",
+					values.get("field2"));
+		} else if (table.equals("posts")) {
+			doc.append("user_id", values.get("user_id")).append("content", values.get("longContent"))
+					.append("platform", values.get("field1")).append("posted_time", values.get("field2"));
+		} else if (table.equals("comments")) {
+			doc.append("post_id", values.get("post_id")).append("content", values.get("longContent"))
+					.append("commented_time", values.get("field3"));
+		}
+		return doc;
+	}
+
+	/**
+	 * Returns the $set document of an update.
+	 * 
+	 * @param table  The collection of the record.
+	 * @param values The values to update.
+	 * @return The update document.
+	 */
+	static Document toUpdate(String table, Map<String, String> values) {
+		Document updateDoc = new Document();
+		if (table.equals("users")) {
+			updateDoc.append("username", values.get("field0")).append("email", values.get("field1"));
+		} else if (table.equals("posts")) {
+			updateDoc.append("content", values.get("longContent")).append("platform", values.get("field1"));
+		} else if (table.equals("comments")) {
+			updateDoc.append("content", values.get("longContent"));
+		}
+		return new Document("$set", updateDoc);
+	}
+
+	/**
+	 * Inserts buffered for one collection, with the counters of the bulk writes.
+	 * The writes are unordered, so a failed document does not stop the others:
+	 * duplicate keys (e.g. a load run twice) and the other failures are counted
+	 * separately and printed at cleanup.
+	 */
+	static class BulkBuffer {
+		private static final int DUPLICATE_KEY = 11000;
+		private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+		private final MongoCollection<Document> collection;
+		private List<InsertOneModel<Document>> inserts = new ArrayList<>();
+		private long firstInsertTime;
+
+		private long inserted;
+		private long duplicateKeys;
+		private long failed;
+
+		BulkBuffer(MongoCollection<Document> collection) {
+			this.collection = collection;
+		}
+
+		void add(Document doc) {
+			if (inserts.isEmpty()) {
+				firstInsertTime = System.nanoTime();
+			}
+			inserts.add(new InsertOneModel<>(doc));
+		}
+
+		int size() {
+			return inserts.size();
+		}
+
+		/**
+		 * Returns the time since the oldest buffered insert.
+		 * 
+		 * @return The age of the buffer in nanoseconds.
+		 */
+		long age() {
+			return System.nanoTime() - firstInsertTime;
+		}
+
+		/**
+		 * Writes the buffered inserts, measuring the bulk write in the BULK-INSERT
+		 * series.
+		 */
+		void flush() {
+			if (inserts.isEmpty()) {
+				return;
+			}
+			List<InsertOneModel<Document>> batch = inserts;
+			inserts = new ArrayList<>(batch.size());
+
+			Measurements measurements = Measurements.getMeasurements();
+			long startTime = System.nanoTime();
+			Status status = Status.OK;
+			try {
+				inserted += collection.bulkWrite(batch, UNORDERED).getInsertedCount();
+			} catch (MongoBulkWriteException e) {
+				inserted += e.getWriteResult().getInsertedCount();
+				for (BulkWriteError error : e.getWriteErrors()) {
+					if (error.getCode() == DUPLICATE_KEY) {
+						duplicateKeys++;
+					} else {
+						failed++;
+					}
+				}
+				status = e.getWriteErrors().size() < batch.size() ? Status.OK : Status.ERROR;
+			} catch (MongoException e) {
+				failed += batch.size();
+				e.printStackTrace();
+				status = Status.ERROR;
+			}
+			String measurementName = status.isOk() ? "BULK-INSERT" : "BULK-INSERT-FAILED";
+			measurements.measure(measurementName, (int) ((System.nanoTime() - startTime) / 1000));
+			measurements.reportStatus("BULK-INSERT", status);
+		}
+
+		void printCounters() {
+			System.out.println("collection=" + collection.getNamespace().getCollectionName() + ";bulk inserted="
+					+ inserted + ";duplicate keys=" + duplicateKeys + ";failed=" + failed);
+		}
+	}
+
 	/**
 	 * Inner class to encapsulate the client interactions.
 	 */
 	public class MongoDBClient {
-		private MongoClient mongoClient;
-		private MongoDatabase db;
+		private boolean connected;
+
+		// While loading with mongodb.batchsize > 0, the inserts are buffered per
+		// collection and written with an unordered bulkWrite once
+		// mongodb.batchsize documents are buffered, or on the next insert (into any
+		// collection) after mongodb.batchmaxdelayms.
+		private int batchSize;
+		private long batchMaxDelayNanos;
+		private final Map<String, BulkBuffer> bulkBuffers = new HashMap<>();
 
 		/**
 		 * Method to establish a connection to the client.
 		 * 
+		 * @param p The properties of the benchmark.
 		 */
-		public void connect() {
-			MongoCredential credential = MongoCredential.createCredential("root", "admin", "example".toCharArray());
+		public void connect(Properties p) {
+			boolean loading = !Boolean.parseBoolean(p.getProperty("dotransactions", "true"));
+			batchSize = loading ? Integer.parseInt(p.getProperty("mongodb.batchsize", "0")) : 0;
+			batchMaxDelayNanos = TimeUnit.MILLISECONDS
+					.toNanos(Long.parseLong(p.getProperty("mongodb.batchmaxdelayms", "1000")));
 
-			mongoClient = MongoClients.create(MongoClientSettings.builder()
-					.applyToClusterSettings(
-							builder -> builder.hosts(Arrays.asList(new ServerAddress("localhost", 27017))))
-					.credential(credential).build());
+			SHARED_CLIENT.acquire(p);
+			connected = true;
+		}
 
-			db = mongoClient.getDatabase("social_media");
+		/**
+		 * Returns the collection of a table, resolved once for all the threads.
+		 * 
+		 * @param table The name of the collection.
+		 * @return The collection.
+		 */
+		private MongoCollection<Document> getCollection(String table) {
+			return SHARED_CLIENT.getCollection(table);
 		}
 
 		/**
@@ -162,23 +478,31 @@ public class MongoDBCustomClient extends DB {
 		 * @param table  The collection to perform the operation on.
 		 * @param key    The _id of the new record
 		 * @param values The values to insert.
+		 * @return true if the document was buffered for a bulk write.
 		 */
-		public void insert(String table, String key, Map<String, String> values) {
-			MongoCollection<Document> collection = db.getCollection(table);
+		public boolean insert(String table, String key, Map<String, String> values) {
+			MongoCollection<Document> collection = getCollection(table);
 
-			Document doc = new Document("_id", key);
-			if (table.equals("users")) {
-				doc.append("username", values.get("field0")).append("email", values.get("field1")).append("created_at",
-						values.get("field2"));
-			} else if (table.equals("posts")) {
-				doc.append("user_id", values.get("user_id")).append("content", values.get("longContent"))
-						.append("platform", values.get("field1")).append("posted_time", values.get("field2"));
-			} else if (table.equals("comments")) {
-				doc.append("post_id", values.get("post_id")).append("content", values.get("longContent"))
-						.append("commented_time", values.get("field3"));
+			Document doc = toDocument(table, key, values);
+
+			if (batchSize > 0) {
+				BulkBuffer buffer = bulkBuffers.computeIfAbsent(table, t -> new BulkBuffer(collection));
+				buffer.add(doc);
+				if (buffer.size() >= batchSize) {
+					buffer.flush();
+				}
+				// The threads load the collections one after the other, so the buffers
+				// of the other collections are checked too.
+				for (BulkBuffer pending : bulkBuffers.values()) {
+					if (pending.size() > 0 && pending.age() >= batchMaxDelayNanos) {
+						pending.flush();
+					}
+				}
+				return true;
 			}
 
 			collection.insertOne(doc);
+			return false;
 		}
 
 		/**
@@ -189,7 +513,7 @@ public class MongoDBCustomClient extends DB {
 		 * @return A map containing the read values.
 		 */
 		public Map<String, String> read(String table, String key) {
-			MongoCollection<Document> collection = db.getCollection(table);
+			MongoCollection<Document> collection = getCollection(table);
 
 			Document doc = collection.find(Filters.eq("_id", key)).first();
 			if (doc == null) {
@@ -204,6 +528,30 @@ public class MongoDBCustomClient extends DB {
 			return result;
 		}
 
+		/**
+		 * Method to read the documents of a collection referencing a parent
+		 * document.
+		 * 
+		 * @param table      The collection to read from.
+		 * @param foreignKey The field holding the _id of the parent document.
+		 * @param parentKey  The _id of the parent document.
+		 * @param limit      The maximum number of documents to read.
+		 * @return A list of maps containing the read values.
+		 */
+		public List<Map<String, String>> readChildren(String table, String foreignKey, String parentKey, int limit) {
+			MongoCollection<Document> collection = getCollection(table);
+
+			List<Map<String, String>> records = new ArrayList<>();
+			for (Document doc : collection.find(Filters.eq(foreignKey, parentKey)).limit(limit)) {
+				Map<String, String> record = new HashMap<>();
+				for (Map.Entry<String, Object> entry : doc.entrySet()) {
+					record.put(entry.getKey(), entry.getValue().toString());
+				}
+				records.add(record);
+			}
+			return records;
+		}
+
 		/**
 		 * Method to perform an update operation on a given table and key with provided
 		 * values.
@@ -213,18 +561,9 @@ public class MongoDBCustomClient extends DB {
 		 * @param values The values to update with.
 		 */
 		public void update(String table, String key, Map<String, String> values) {
-			MongoCollection<Document> collection = db.getCollection(table);
-
-			Document updateDoc = new Document();
-			if (table.equals("users")) {
-				updateDoc.append("username", values.get("field0")).append("email", values.get("field1"));
-			} else if (table.equals("posts")) {
-				updateDoc.append("content", values.get("longContent")).append("platform", values.get("field1"));
-			} else if (table.equals("comments")) {
-				updateDoc.append("content", values.get("longContent"));
-			}
+			MongoCollection<Document> collection = getCollection(table);
 
-			UpdateResult result = collection.updateOne(Filters.eq("_id", key), new Document("$set", updateDoc));
+			UpdateResult result = collection.updateOne(Filters.eq("_id", key), toUpdate(table, values));
 			if (result.getModifiedCount() == 0) {
 				throw new IllegalArgumentException("No document found with key: " + key);
 			}
@@ -237,7 +576,7 @@ public class MongoDBCustomClient extends DB {
 		 * @param key   The _id of the record to delete.
 		 */
 		public void delete(String table, String key) {
-			MongoCollection<Document> collection = db.getCollection(table);
+			MongoCollection<Document> collection = getCollection(table);
 
 			DeleteResult result = collection.deleteOne(Filters.eq("_id", key));
 			if (result.getDeletedCount() == 0) {
@@ -249,7 +588,15 @@ public class MongoDBCustomClient extends DB {
 		 * Method to close the client connection.
 		 */
 		public void close() {
-			mongoClient.close();
+			if (!connected) {
+				// connect() failed
+				return;
+			}
+			for (BulkBuffer buffer : bulkBuffers.values()) {
+				buffer.flush();
+				buffer.printCounters();
+			}
+			SHARED_CLIENT.release();
 		}
 	}
 }
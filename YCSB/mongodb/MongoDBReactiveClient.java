@@ -0,0 +1,227 @@
+package site.ycsb.db;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import site.ycsb.ByteIterator;
+import site.ycsb.DB;
+import site.ycsb.DBException;
+import site.ycsb.MultiTableWorkload;
+import site.ycsb.Status;
+import site.ycsb.StringByteIterator;
+import site.ycsb.measurements.Measurements;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * MongoDB binding built on the reactive streams driver. The operations are not
+ * waited for: each YCSB thread keeps up to mongodb.maxinflight of them
+ * outstanding and blocks when the window is full. The latency of an operation,
+ * measured when it completes, is recorded in the ASYNC-[operation] series; the
+ * series of the operation itself only measures the time to send it. Reads do
+ * not fill the result map, so the "view post" operation and the "latest"
+ * distribution are rejected by the workload.
+ *
+ * It uses the same properties as MongoDBCustomClient for the connection.
+ */
+public class MongoDBReactiveClient extends DB {
+
+	// Client and collections shared by all the client threads.
+	private static final SharedMongoClient<MongoClient, MongoDatabase, MongoCollection<Document>> SHARED_CLIENT =
+			new SharedMongoClient<>(MongoClients::create, MongoClient::getDatabase, MongoDatabase::getCollection);
+
+	private boolean connected;
+	private Semaphore inFlight;
+	private int maxInFlight;
+
+	/**
+	 * Method to initialize the client.
+	 *
+	 * @throws DBException
+	 */
+	@Override
+	public void init() throws DBException {
+		Properties p = getProperties();
+		maxInFlight = Integer.parseInt(p.getProperty("mongodb.maxinflight", "64"));
+		inFlight = new Semaphore(maxInFlight);
+
+		SHARED_CLIENT.acquire(p);
+		connected = true;
+		MultiTableWorkload.registerBinding(this, true);
+	}
+
+	/**
+	 * This method sends a read of a record. The read is not waited for, so the
+	 * result map is left empty; a missing record is reported as NOT_FOUND in the
+	 * ASYNC-READ series.
+	 *
+	 * @param table  The name of the table
+	 * @param key    The primary key to read on
+	 * @param fields The list of fields to read, or null for all of them (default is
+	 *               null)
+	 * @param result A map of field/value pairs for the result
+	 * @return The result of the operation.
+	 */
+	@Override
+	public Status read(String table, String key, Set<String> fields, Map<String, ByteIterator> result) {
+		return submit("READ", () -> SHARED_CLIENT.getCollection(table).find(Filters.eq("_id", key)).first(),
+				doc -> Status.OK);
+	}
+
+	/**
+	 * This method sends the insert of a record.
+	 *
+	 * @param table  The name of the table
+	 * @param key    The primary key of the record that will be insert
+	 * @param values A map of field/value pairs to insert.
+	 * @return The result of the operation.
+	 */
+	@Override
+	public Status insert(String table, String key, Map<String, ByteIterator> values) {
+		Document doc = MongoDBCustomClient.toDocument(table, key, StringByteIterator.getStringMap(values));
+		return submit("INSERT", () -> SHARED_CLIENT.getCollection(table).insertOne(doc), success -> Status.OK);
+	}
+
+	/**
+	 * This method sends the delete of a record.
+	 *
+	 * @param table The name of the table
+	 * @param key   The primary key of the record that will be deleted
+	 * @return The result of the operation.
+	 */
+	@Override
+	public Status delete(String table, String key) {
+		return submit("DELETE", () -> SHARED_CLIENT.getCollection(table).deleteOne(Filters.eq("_id", key)),
+				(DeleteResult deleted) -> deleted.getDeletedCount() == 0 ? Status.NOT_FOUND : Status.OK);
+	}
+
+	/**
+	 * This method sends the update of a record.
+	 *
+	 * @param table  The name of the table
+	 * @param key    The primary key of the record that will be updated
+	 * @param values A map of field/value pairs to update in the record
+	 * @return The result of the operation.
+	 */
+	@Override
+	public Status update(String table, String key, Map<String, ByteIterator> values) {
+		Document update = MongoDBCustomClient.toUpdate(table, StringByteIterator.getStringMap(values));
+		return submit("UPDATE", () -> SHARED_CLIENT.getCollection(table).updateOne(Filters.eq("_id", key), update),
+				(UpdateResult updated) -> updated.getMatchedCount() == 0 ? Status.NOT_FOUND : Status.OK);
+	}
+
+	@Override
+	public Status scan(String table, String startkey, int recordcount, Set<String> fields,
+			Vector<HashMap<String, ByteIterator>> result) {
+		throw new UnsupportedOperationException("Scan is not implemented.");
+	}
+
+	/**
+	 * This method waits for the operations still in flight and closes the client
+	 * after the last thread.
+	 */
+	@Override
+	public void cleanup() {
+		if (!connected) {
+			// init() failed
+			return;
+		}
+		inFlight.acquireUninterruptibly(maxInFlight);
+		SHARED_CLIENT.release();
+	}
+
+	/**
+	 * Sends an operation once a slot of the in-flight window is free: this is the
+	 * back-pressure applied to the calling thread.
+	 *
+	 * @param operation The name of the operation, e.g. READ.
+	 * @param request   Creates the publisher of the operation.
+	 * @param toStatus  Maps the result of the operation to its status.
+	 * @return OK once the operation is sent.
+	 */
+	private <T> Status submit(String operation, PublisherFactory<T> request, Function<T, Status> toStatus) {
+		inFlight.acquireUninterruptibly();
+		Publisher<T> publisher;
+		try {
+			publisher = request.create();
+		} catch (RuntimeException e) {
+			inFlight.release();
+			e.printStackTrace();
+			return Status.ERROR;
+		}
+		publisher.subscribe(new CompletionSubscriber<>(operation, toStatus));
+		return Status.OK;
+	}
+
+	/**
+	 * Creates the publisher of an operation.
+	 */
+	private interface PublisherFactory<T> {
+		Publisher<T> create();
+	}
+
+	/**
+	 * Subscriber of a single-result operation: it requests the result, maps it to
+	 * a status (NOT_FOUND if the publisher completes empty) and records the
+	 * latency of the operation when it completes.
+	 */
+	private final class CompletionSubscriber<T> implements Subscriber<T> {
+		private final String measurementName;
+		private final Function<T, Status> toStatus;
+		private final long intendedStartTime;
+		private final long startTime;
+		private Status status = Status.NOT_FOUND;
+
+		CompletionSubscriber(String operation, Function<T, Status> toStatus) {
+			this.measurementName = "ASYNC-" + operation;
+			this.toStatus = toStatus;
+			this.intendedStartTime = Measurements.getMeasurements().getIntendedStartTimeNs();
+			this.startTime = System.nanoTime();
+		}
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(T item) {
+			status = toStatus.apply(item);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			complete(Status.ERROR);
+		}
+
+		@Override
+		public void onComplete() {
+			complete(status);
+		}
+
+		private void complete(Status status) {
+			long endTime = System.nanoTime();
+			Measurements measurements = Measurements.getMeasurements();
+			String name = status.isOk() ? measurementName : measurementName + "-FAILED";
+			measurements.measure(name, (int) ((endTime - startTime) / 1000));
+			measurements.measureIntended(name, (int) ((endTime - intendedStartTime) / 1000));
+			measurements.reportStatus(measurementName, status);
+			inFlight.release();
+		}
+	}
+}
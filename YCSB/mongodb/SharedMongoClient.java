@@ -0,0 +1,87 @@
+package site.ycsb.db;
+
+import com.mongodb.MongoClientSettings;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * MongoClient, with its connection pool, and collections shared by all the
+ * client threads of a binding: the first call to acquire() creates the client
+ * and the last call to release() closes it. The client is built from the
+ * mongodb.* properties, so the synchronous and the reactive streams bindings
+ * connect the same way.
+ *
+ * @param <M> The type of the MongoClient.
+ * @param <D> The type of the database.
+ * @param <C> The type of the collections.
+ */
+final class SharedMongoClient<M extends Closeable, D, C> {
+	private final Function<MongoClientSettings, M> clientFactory;
+	private final BiFunction<M, String, D> databaseLookup;
+	private final BiFunction<D, String, C> collectionLookup;
+
+	private int references = 0;
+	private M client;
+	private D database;
+	private final Map<String, C> collections = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the holder of the client of a binding.
+	 *
+	 * @param clientFactory    Creates the client, e.g. MongoClients::create.
+	 * @param databaseLookup   Returns a database of the client.
+	 * @param collectionLookup Returns a collection of the database.
+	 */
+	SharedMongoClient(Function<MongoClientSettings, M> clientFactory, BiFunction<M, String, D> databaseLookup,
+			BiFunction<D, String, C> collectionLookup) {
+		this.clientFactory = clientFactory;
+		this.databaseLookup = databaseLookup;
+		this.collectionLookup = collectionLookup;
+	}
+
+	/**
+	 * Takes a reference to the client, creating it for the first thread.
+	 *
+	 * @param p The properties of the benchmark.
+	 */
+	synchronized void acquire(Properties p) {
+		if (references == 0) {
+			client = clientFactory.apply(MongoDBCustomClient.buildSettings(p));
+			database = databaseLookup.apply(client, p.getProperty("mongodb.database", "social_media"));
+		}
+		references++;
+	}
+
+	/**
+	 * Returns the collection of a table, resolved once for all the threads. Only
+	 * valid between acquire() and release().
+	 *
+	 * @param table The name of the collection.
+	 * @return The collection.
+	 */
+	C getCollection(String table) {
+		return collections.computeIfAbsent(table, t -> collectionLookup.apply(database, t));
+	}
+
+	/**
+	 * Releases a reference to the client, closing it after the last thread.
+	 */
+	synchronized void release() {
+		if (--references == 0) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			client = null;
+			database = null;
+			collections.clear();
+		}
+	}
+}
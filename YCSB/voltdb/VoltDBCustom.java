@@ -10,6 +10,8 @@ import org.voltdb.client.ClientResponse;
 import site.ycsb.ByteIterator;
 import site.ycsb.DB;
 import site.ycsb.DBException;
+import site.ycsb.MultiTableWorkload;
+import site.ycsb.MultiTableWorkload.DurabilityProfile;
 import site.ycsb.Status;
 import site.ycsb.StringByteIterator;
 import org.voltdb.client.ProcCallException;
@@ -17,15 +19,22 @@ import org.voltdb.VoltTable;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 import java.sql.Timestamp;
 
-public class VoltDBCustom extends DB {
+public class VoltDBCustom extends DB implements MultiTableWorkload.ChildReader {
 	private VoltDBClient client;
 
+	// The durability profile is checked against the deployment by the first
+	// client thread only.
+	private static final Object DURABILITY_LOCK = new Object();
+	private static boolean durabilityChecked = false;
+
 	/**
 	 * Constructor to initialize the client.
 	 */
@@ -44,9 +53,16 @@ public class VoltDBCustom extends DB {
 	public void init() throws DBException {
 		try {
 			client.connect();
+			synchronized (DURABILITY_LOCK) {
+				if (!durabilityChecked) {
+					client.checkDurabilityProfile(DurabilityProfile.of(getProperties()));
+					durabilityChecked = true;
+				}
+			}
 		} catch (IOException e) {
 			throw new DBException(e);
 		}
+		MultiTableWorkload.registerBinding(this);
 	}
 
 	/**
@@ -127,6 +143,33 @@ public class VoltDBCustom extends DB {
 		}
 	}
 
+	/**
+	 * This method reads the records of a table that reference a given parent
+	 * record, e.g. the comments of a post.
+	 * 
+	 * @param table      The name of the table
+	 * @param foreignKey The field holding the key of the parent record
+	 * @param parentKey  The primary key of the parent record
+	 * @param limit      The maximum number of records to read
+	 * @param result     A Vector of field/value maps, one for each record
+	 * @return The result of the operation.
+	 */
+	@Override
+	public Status readChildren(String table, String foreignKey, String parentKey, int limit,
+			Vector<HashMap<String, ByteIterator>> result) {
+		try {
+			for (Map<String, String> record : client.readChildren(table, foreignKey, parentKey, limit)) {
+				HashMap<String, ByteIterator> values = new HashMap<>();
+				StringByteIterator.putAllAsByteIterators(values, record);
+				result.add(values);
+			}
+			return Status.OK;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return Status.ERROR;
+		}
+	}
+
 	@Override
 	public Status scan(String table, String startkey, int recordcount, Set<String> fields,
 			Vector<HashMap<String, ByteIterator>> result) {
@@ -166,6 +209,59 @@ public class VoltDBCustom extends DB {
 			this.client.createConnection("localhost");
 		}
 
+		/**
+		 * Method to record the durability of the server next to the requested
+		 * durability profile. VoltDB writes are always synchronously replicated to
+		 * the k-safe copies; their durability on disk is the command log of the
+		 * deployment, which the client cannot change:
+		 * <ul>
+		 * <li>strict: synchronous command log</li>
+		 * <li>balanced: asynchronous command log</li>
+		 * <li>fast: no command log</li>
+		 * </ul>
+		 * A warning is printed if the deployment does not match the profile.
+		 * 
+		 * @param profile The durability profile, or null.
+		 */
+		public void checkDurabilityProfile(DurabilityProfile profile) {
+			if (profile == null) {
+				return;
+			}
+			Map<String, String> deployment = new HashMap<>();
+			try {
+				VoltTable table = this.client.callProcedure("@SystemInformation", "DEPLOYMENT").getResults()[0];
+				while (table.advanceRow()) {
+					deployment.put(table.getString(0).toLowerCase(), table.getString(1));
+				}
+			} catch (IOException | ProcCallException e) {
+				System.out.println("voltdb durability profile=" + profile.name().toLowerCase()
+						+ ";cannot read the deployment: " + e.getMessage());
+				return;
+			}
+
+			boolean enabled = Boolean.parseBoolean(deployment.get("commandlogenabled"));
+			boolean synchronous = "sync".equalsIgnoreCase(deployment.get("commandlogmode"));
+			String commandLog = !enabled ? "disabled" : synchronous ? "synchronous" : "asynchronous";
+			System.out.println("voltdb durability profile=" + profile.name().toLowerCase() + ";command log=" + commandLog);
+
+			boolean matches;
+			switch (profile) {
+			case STRICT:
+				matches = enabled && synchronous;
+				break;
+			case BALANCED:
+				matches = enabled && !synchronous;
+				break;
+			default:
+				matches = !enabled;
+				break;
+			}
+			if (!matches) {
+				System.out.println("WARNING: the command log of the deployment does not match the durability profile "
+						+ profile.name().toLowerCase());
+			}
+		}
+
 		/**
 		 * Helper method to derive the procedure name.
 		 * 
@@ -222,6 +318,37 @@ public class VoltDBCustom extends DB {
 			return result;
 		}
 
+		/**
+		 * Method to read the records of a table referencing a parent record, through
+		 * the procedure Select[Table]By[ForeignKey], e.g. SelectCommentsByPostId.
+		 * 
+		 * @param table      The table to read from.
+		 * @param foreignKey The column holding the key of the parent record.
+		 * @param parentKey  The primary key of the parent record.
+		 * @param limit      The maximum number of records to read.
+		 * @return A list of maps containing the read values.
+		 * @throws ProcCallException
+		 * @throws IOException
+		 */
+		public List<Map<String, String>> readChildren(String table, String foreignKey, String parentKey, int limit)
+				throws ProcCallException, IOException {
+			StringBuilder procedure = new StringBuilder(getProcedureName("Select", table)).append("By");
+			for (String part : foreignKey.split("_")) {
+				procedure.append(part.substring(0, 1).toUpperCase()).append(part.substring(1));
+			}
+			ClientResponse response = this.client.callProcedure(procedure.toString(), parentKey, limit);
+			VoltTable resultsTable = response.getResults()[0];
+			List<Map<String, String>> records = new ArrayList<>();
+			while (resultsTable.advanceRow()) {
+				Map<String, String> record = new HashMap<>();
+				for (int i = 0; i < resultsTable.getColumnCount(); i++) {
+					record.put(resultsTable.getColumnName(i), resultsTable.getString(i));
+				}
+				records.add(record);
+			}
+			return records;
+		}
+
 		/**
 		 * Method to perform an update operation on a given table and key with provided
 		 * values.
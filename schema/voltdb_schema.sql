@@ -25,3 +25,5 @@ CREATE TABLE comments (
     PRIMARY KEY (comment_id)
 );
 PARTITION TABLE comments ON COLUMN comment_id;
+
+CREATE INDEX comments_post_id ON comments (post_id);